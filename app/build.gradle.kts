@@ -49,6 +49,8 @@ dependencies {
     implementation("androidx.documentfile:documentfile:1.0.1")
 
     testImplementation(libs.junit)
+    // Android's bundled org.json is a stub in local unit tests
+    testImplementation(libs.json)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.example.rtsprecorder;
+
+/**
+ * Reassembles the video PES packets coming out of a {@link TsIngestTap} into complete
+ * access units (one encoded frame each) with their presentation timestamp.
+ *
+ * The frame buffer is reused for every access unit and only grows when a frame is
+ * larger than anything seen before, up to {@link #MAX_FRAME_BYTES}; larger access units
+ * are dropped. Listeners get a view of that buffer and must copy what they keep before
+ * returning.
+ */
+public class AccessUnitAssembler implements TsIngestTap.Listener {
+
+    private static final int INITIAL_CAPACITY = 512 * 1024;
+    // Far above a 4K keyframe; anything bigger is a corrupt or unterminated PES
+    static final int MAX_FRAME_BYTES = 8 * 1024 * 1024;
+    private static final int PACKET = TsIngestTap.TS_PACKET_SIZE;
+
+    public interface Listener {
+        void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs);
+
+        void onStreamEnd();
+    }
+
+    private final TsIngestTap tap;
+    private volatile Listener[] listeners = new Listener[0];
+
+    private byte[] frame = new byte[INITIAL_CAPACITY];
+    private int frameLength = 0;
+    private long framePtsUs = -1;
+    private boolean frameKeyframe = false;
+    private long frameReceivedAtMs = 0;
+    private boolean inFrame = false;
+
+    public AccessUnitAssembler(TsIngestTap tap) {
+        this.tap = tap;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] next = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, next, 0, listeners.length);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    public int getStreamType() {
+        return tap.getVideoStreamType();
+    }
+
+    @Override
+    public void onTsPacket(byte[] p, int off, boolean keyframe, long receivedAtMs) {
+        int pid = ((p[off + 1] & 0x1F) << 8) | (p[off + 2] & 0xFF);
+        if (pid != tap.getVideoPid()) {
+            return;
+        }
+        boolean payloadStart = (p[off + 1] & 0x40) != 0;
+        int adaptationControl = (p[off + 3] >> 4) & 0x03;
+        if ((adaptationControl & 0x01) == 0) {
+            return;
+        }
+        int payload = off + 4;
+        if ((adaptationControl & 0x02) != 0) {
+            payload += 1 + (p[off + 4] & 0xFF);
+        }
+        int end = off + PACKET;
+        if (payload >= end) {
+            return;
+        }
+
+        if (payloadStart) {
+            emitFrame();
+            if (payload + 9 > end || p[payload] != 0 || p[payload + 1] != 0 || p[payload + 2] != 1) {
+                return;
+            }
+            boolean hasPts = (p[payload + 7] & 0x80) != 0;
+            int headerLength = p[payload + 8] & 0xFF;
+            if (payload + 9 + headerLength > end || (hasPts && (headerLength < 5 || payload + 14 > end))) {
+                return;
+            }
+            framePtsUs = hasPts ? readPts(p, payload + 9) * 100 / 9 : -1;
+            frameKeyframe = keyframe;
+            frameReceivedAtMs = receivedAtMs;
+            inFrame = true;
+            payload += 9 + headerLength;
+            if (payload >= end) {
+                return;
+            }
+        } else if (!inFrame) {
+            return;
+        }
+        append(p, payload, end - payload);
+    }
+
+    @Override
+    public void onStreamEnd() {
+        emitFrame();
+        for (Listener listener : listeners) {
+            listener.onStreamEnd();
+        }
+    }
+
+    private void append(byte[] src, int offset, int length) {
+        if (frameLength + length > MAX_FRAME_BYTES) {
+            // Drop the whole access unit, the next PES start begins a fresh one
+            inFrame = false;
+            frameLength = 0;
+            return;
+        }
+        if (frameLength + length > frame.length) {
+            byte[] grown = new byte[Math.min(Math.max(frame.length * 2, frameLength + length), MAX_FRAME_BYTES)];
+            System.arraycopy(frame, 0, grown, 0, frameLength);
+            frame = grown;
+        }
+        System.arraycopy(src, offset, frame, frameLength, length);
+        frameLength += length;
+    }
+
+    private void emitFrame() {
+        if (inFrame && frameLength > 0) {
+            for (Listener listener : listeners) {
+                listener.onAccessUnit(frame, frameLength, framePtsUs, frameKeyframe, frameReceivedAtMs);
+            }
+        }
+        inFrame = false;
+        frameLength = 0;
+    }
+
+    /** 33-bit PES timestamp in 90 kHz units. */
+    private static long readPts(byte[] p, int i) {
+        return ((long) (p[i] & 0x0E) << 29)
+                | ((p[i + 1] & 0xFF) << 22)
+                | ((p[i + 2] & 0xFE) << 14)
+                | ((p[i + 3] & 0xFF) << 7)
+                | ((p[i + 4] & 0xFE) >>> 1);
+    }
+
+    /**
+     * Returns the Annex-B parameter set NAL units (H.264 SPS+PPS, HEVC VPS+SPS+PPS) of a
+     * keyframe, each with its start code, or null if the frame carries none.
+     */
+    public static byte[][] extractParameterSets(byte[] data, int length, int streamType) {
+        boolean hevc = streamType == TsIngestTap.STREAM_TYPE_HEVC;
+        byte[] first = null;
+        byte[] second = null;
+        int start = nextStartCode(data, 0, length);
+        while (start >= 0) {
+            int nal = start + 3;
+            int next = nextStartCode(data, nal, length);
+            int nalEnd = next >= 0 ? next : length;
+            // 4-byte start codes leave a trailing zero on the previous NAL
+            while (nalEnd > nal && data[nalEnd - 1] == 0) {
+                nalEnd--;
+            }
+            if (nal < nalEnd) {
+                int type = hevc ? (data[nal] >> 1) & 0x3F : data[nal] & 0x1F;
+                boolean isFirst = hevc ? (type == 32 || type == 33 || type == 34) : type == 7;
+                boolean isSecond = !hevc && type == 8;
+                if (isFirst) {
+                    first = concat(first, data, nal, nalEnd - nal);
+                } else if (isSecond) {
+                    second = concat(second, data, nal, nalEnd - nal);
+                }
+            }
+            start = next;
+        }
+        if (first == null || (!hevc && second == null)) {
+            return null;
+        }
+        return hevc ? new byte[][]{first} : new byte[][]{first, second};
+    }
+
+    static int nextStartCode(byte[] data, int from, int length) {
+        for (int i = from; i + 2 < length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] concat(byte[] existing, byte[] src, int offset, int length) {
+        int existingLength = existing != null ? existing.length : 0;
+        byte[] out = new byte[existingLength + 4 + length];
+        if (existing != null) {
+            System.arraycopy(existing, 0, out, 0, existingLength);
+        }
+        out[existingLength + 3] = 1;
+        System.arraycopy(src, offset, out, existingLength + 4, length);
+        return out;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.rtsprecorder;
+
+/**
+ * Token bucket shared by all upload threads, so the total upload rate stays under the
+ * configured cap no matter how many parts are in flight. Holds at most one second of
+ * burst; a rate of 0 disables limiting.
+ */
+public class BandwidthLimiter {
+
+    private final long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNs;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefillNs = System.nanoTime();
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** Blocks until {@code bytes} may be sent. */
+    public void acquire(int bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long waitMs;
+        synchronized (this) {
+            refill();
+            // Take the tokens now, possibly going negative; the debt is the wait
+            tokens -= bytes;
+            waitMs = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / bytesPerSecond);
+        }
+        if (waitMs > 0) {
+            Thread.sleep(waitMs);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(bytesPerSecond, tokens + (now - lastRefillNs) * bytesPerSecond / 1e9);
+        lastRefillNs = now;
+    }
+}
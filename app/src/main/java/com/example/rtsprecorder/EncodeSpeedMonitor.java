@@ -0,0 +1,97 @@
+package com.example.rtsprecorder;
+
+/**
+ * Measures how fast the transcoder produces video, from the encoded access units on the
+ * ingest tap. Over a short window after a warm-up it reports media time produced per
+ * second of wall time (below 1.0 means the encoder is falling behind and VLC is
+ * buffering) and the output frame rate (which drops when VLC discards late frames).
+ *
+ * Arrival times come from the tap, so pipe buffering shifts the window but does not
+ * change its length.
+ */
+public class EncodeSpeedMonitor implements AccessUnitAssembler.Listener {
+
+    /** Let the encoder's lookahead and the muxer fill before measuring. */
+    private static final long WARMUP_MS = 3000;
+    private static final long WINDOW_MS = 10000;
+
+    public interface Callback {
+        /** Called on the tap's reader thread, once per {@link #arm}. */
+        void onEncodeSpeedMeasured(float speed, float outputFps);
+    }
+
+    private final Callback callback;
+
+    private volatile boolean armed = false;
+    private volatile boolean resetRequested = false;
+    // Reader thread only
+    private long firstFrameMs;
+    private long windowStartMs;
+    private long windowStartPtsUs;
+    private long lastPtsUs;
+    private int frames;
+
+    public EncodeSpeedMonitor(Callback callback) {
+        this.callback = callback;
+    }
+
+    /** Starts a new measurement with the next frame, e.g. once the player reports Playing. */
+    public void arm() {
+        resetRequested = true;
+        armed = true;
+    }
+
+    public void disarm() {
+        armed = false;
+    }
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        if (!armed) {
+            return;
+        }
+        if (resetRequested) {
+            resetRequested = false;
+            firstFrameMs = 0;
+            windowStartMs = 0;
+        }
+        if (ptsUs < 0) {
+            return;
+        }
+        if (firstFrameMs == 0) {
+            firstFrameMs = receivedAtMs;
+            return;
+        }
+        if (receivedAtMs - firstFrameMs < WARMUP_MS) {
+            return;
+        }
+        if (windowStartMs == 0) {
+            windowStartMs = receivedAtMs;
+            windowStartPtsUs = ptsUs;
+            lastPtsUs = ptsUs;
+            frames = 0;
+            return;
+        }
+        frames++;
+        // B-frames arrive out of presentation order; the window end is the latest PTS seen
+        lastPtsUs = Math.max(lastPtsUs, ptsUs);
+        long elapsedMs = receivedAtMs - windowStartMs;
+        if (elapsedMs < WINDOW_MS) {
+            return;
+        }
+        armed = false;
+        long mediaMs = (lastPtsUs - windowStartPtsUs) / 1000;
+        if (mediaMs <= 0) {
+            // Timestamp wrap or reset inside the window; measure again
+            arm();
+            return;
+        }
+        callback.onEncodeSpeedMeasured((float) mediaMs / elapsedMs, frames * 1000f / elapsedMs);
+    }
+
+    @Override
+    public void onStreamEnd() {
+        // A reconnect restarts the encoder and its timestamps; measure the new stream from scratch
+        resetRequested = true;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.rtsprecorder;
+
+import java.util.Locale;
+
+/**
+ * Named settings for the transcode step, ordered from most to least expensive. Auto mode
+ * starts at the top of {@link #LADDER} and steps down while encoding cannot keep up with
+ * real time.
+ */
+public final class EncodingProfile {
+
+    public static final String AUTO = "auto";
+    private static final int AUDIO_KBPS = 128;
+
+    /** Most expensive first; auto mode only ever moves down this list. */
+    public static final EncodingProfile[] LADDER = {
+            new EncodingProfile("high", 1.0f, 0, "veryfast", 0, 2000),
+            new EncodingProfile("medium", 0.75f, 25, "superfast", 0, 1400),
+            new EncodingProfile("low", 0.5f, 15, "ultrafast", 2, 800),
+            new EncodingProfile("minimum", 0.33f, 10, "ultrafast", 2, 400),
+    };
+
+    public final String name;
+    /** Output size relative to the camera's picture. */
+    public final float scale;
+    /** Output frame rate, 0 keeps the camera's rate. */
+    public final int fps;
+    public final String x264Preset;
+    /** x264 worker threads, 0 lets x264 pick one per core. */
+    public final int threads;
+    public final int videoKbps;
+
+    public EncodingProfile(String name, float scale, int fps, String x264Preset, int threads, int videoKbps) {
+        this.name = name;
+        this.scale = scale;
+        this.fps = fps;
+        this.x264Preset = x264Preset;
+        this.threads = threads;
+        this.videoKbps = videoKbps;
+    }
+
+    /** Index in {@link #LADDER}, or -1 for unknown names (including {@link #AUTO}). */
+    public static int indexOf(String name) {
+        for (int i = 0; i < LADDER.length; i++) {
+            if (LADDER[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Position in the settings spinner: {@link #AUTO} first, then the ladder. */
+    public static int toSpinnerIndex(String setting) {
+        return indexOf(setting) + 1;
+    }
+
+    public static String fromSpinnerIndex(int index) {
+        return index >= 1 && index <= LADDER.length ? LADDER[index - 1].name : AUTO;
+    }
+
+    /**
+     * Options for LibVLC's {@code #transcode{...}}, audio included.
+     *
+     * @param keyintFrames maximum keyframe distance, 0 keeps x264's default (250 frames)
+     */
+    public String transcodeOptions(int keyintFrames) {
+        StringBuilder options = new StringBuilder(160)
+                .append("vcodec=h264,venc=x264{preset=").append(x264Preset)
+                .append(",threads=").append(threads);
+        if (keyintFrames > 0) {
+            // x264 caps min-keyint at keyint/2+1; scene cuts may still add keyframes in between
+            options.append(",keyint=").append(keyintFrames)
+                    .append(",min-keyint=").append(Math.max(1, keyintFrames / 2));
+        }
+        options.append('}')
+                .append(",vb=").append(videoKbps);
+        if (scale != 1.0f) {
+            options.append(",scale=").append(String.format(Locale.US, "%.2f", scale));
+        }
+        if (fps > 0) {
+            options.append(",fps=").append(fps);
+        }
+        return options.append(",acodec=mp4a,ab=").append(AUDIO_KBPS).toString();
+    }
+
+    /** Video plus audio bitrate of the output stream. */
+    public int totalKbps() {
+        return videoKbps + AUDIO_KBPS;
+    }
+
+    public String describe() {
+        return String.format(Locale.US, "%s (%.2fx scale, %s, x264 %s, %s, %d kbps)",
+                name, scale, fps > 0 ? fps + " fps" : "source fps", x264Preset,
+                threads > 0 ? threads + " threads" : "auto threads", videoKbps);
+    }
+}
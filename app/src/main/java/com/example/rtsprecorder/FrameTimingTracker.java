@@ -0,0 +1,127 @@
+package com.example.rtsprecorder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out when the first and last frame of each recorded stream were captured, for
+ * segment names and metadata.
+ *
+ * LibVLC exposes neither RTP timestamps nor RTCP sender reports, but the PTS on the
+ * ingest tap is derived from the RTP timestamps, so frame spacing is exact. The PTS is
+ * mapped to the phone's clock with the smallest arrival-minus-PTS offset seen in the
+ * stream, i.e. the frame that had the least network and buffering delay. That removes
+ * the jitter of plain arrival times. Streams with broken timestamps fall back to arrival
+ * times.
+ */
+public class FrameTimingTracker implements AccessUnitAssembler.Listener {
+
+    /** A PTS step larger than this is a wrap or reset, not a frame interval. */
+    private static final long MAX_PTS_STEP_MS = 10000;
+
+    public static final String SOURCE_PTS = "pts";
+    public static final String SOURCE_ARRIVAL = "arrival";
+
+    /** Timing of one stream, i.e. one player session. */
+    public static final class Span {
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private int frames = 0;
+        private boolean ptsUsable = true;
+        private long previousPtsMs = Long.MIN_VALUE;
+        private long minPtsMs = Long.MAX_VALUE;
+        private long maxPtsMs = Long.MIN_VALUE;
+        private long offsetMs = Long.MAX_VALUE;
+        private long firstArrivalMs = 0;
+        private long lastArrivalMs = 0;
+
+        private synchronized void onFrame(long ptsUs, long arrivalMs) {
+            if (frames == 0) {
+                firstArrivalMs = arrivalMs;
+            }
+            lastArrivalMs = arrivalMs;
+            frames++;
+            if (ptsUs < 0) {
+                ptsUsable = false;
+            }
+            if (!ptsUsable) {
+                return;
+            }
+            long ptsMs = ptsUs / 1000;
+            if (previousPtsMs != Long.MIN_VALUE && Math.abs(ptsMs - previousPtsMs) > MAX_PTS_STEP_MS) {
+                ptsUsable = false;
+                return;
+            }
+            previousPtsMs = ptsMs;
+            minPtsMs = Math.min(minPtsMs, ptsMs);
+            maxPtsMs = Math.max(maxPtsMs, ptsMs);
+            offsetMs = Math.min(offsetMs, arrivalMs - ptsMs);
+        }
+
+        /** Waits up to {@code timeoutMs} for the stream to end, so the last frames are counted. */
+        public void awaitEnd(long timeoutMs) throws InterruptedException {
+            ended.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public synchronized int getFrames() {
+            return frames;
+        }
+
+        public synchronized String getSource() {
+            return ptsUsable ? SOURCE_PTS : SOURCE_ARRIVAL;
+        }
+
+        /** Wall-clock time of the first frame, or 0 when no frame was seen. */
+        public synchronized long getFirstFrameMs() {
+            if (frames == 0) {
+                return 0;
+            }
+            return ptsUsable ? minPtsMs + offsetMs : firstArrivalMs;
+        }
+
+        /** Wall-clock time of the last frame, or 0 when no frame was seen. */
+        public synchronized long getLastFrameMs() {
+            if (frames == 0) {
+                return 0;
+            }
+            return ptsUsable ? maxPtsMs + offsetMs : lastArrivalMs;
+        }
+    }
+
+    private Span current = new Span();
+    private Span lastEnded;
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        Span span;
+        synchronized (this) {
+            span = current;
+        }
+        span.onFrame(ptsUs, receivedAtMs);
+    }
+
+    @Override
+    public void onStreamEnd() {
+        Span ended;
+        synchronized (this) {
+            ended = current;
+            if (ended.getFrames() > 0) {
+                lastEnded = ended;
+            }
+            current = new Span();
+        }
+        ended.ended.countDown();
+    }
+
+    /**
+     * Hands out the span of the stream that was just stopped. Call it after stopping the
+     * player and before starting the next one; the reader may or may not have seen the
+     * end of the stream yet, so the caller should {@link Span#awaitEnd} before reading.
+     *
+     * @return null when no frame of that stream reached the tap
+     */
+    public synchronized Span cut() {
+        Span span = current.getFrames() > 0 ? current : lastEnded;
+        lastEnded = null;
+        return span;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.rtsprecorder;
+
+/**
+ * Minimal H.264 sequence parameter set reader: just enough to get the coded picture
+ * size that MediaMuxer needs for a passthrough track.
+ */
+public final class H264Sps {
+
+    public final int width;
+    public final int height;
+
+    private H264Sps(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /** Parses an SPS NAL unit with or without its Annex-B start code; returns null if malformed. */
+    public static H264Sps parse(byte[] nal) {
+        try {
+            return parseUnchecked(nal);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static H264Sps parseUnchecked(byte[] nal) {
+        int start = 0;
+        while (start < nal.length && nal[start] == 0) {
+            start++;
+        }
+        if (start < nal.length && nal[start] == 1) {
+            start++;
+        }
+        if (start + 1 >= nal.length) {
+            return null;
+        }
+        BitReader r = new BitReader(unescape(nal, start + 1)); // skip NAL header
+
+        int profileIdc = r.bits(8);
+        r.bits(16); // constraint flags + level_idc
+        r.ue(); // seq_parameter_set_id
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 244
+                || profileIdc == 44 || profileIdc == 83 || profileIdc == 86 || profileIdc == 118
+                || profileIdc == 128 || profileIdc == 138 || profileIdc == 139 || profileIdc == 134
+                || profileIdc == 135) {
+            chromaFormatIdc = r.ue();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = r.bit();
+            }
+            r.ue(); // bit_depth_luma_minus8
+            r.ue(); // bit_depth_chroma_minus8
+            r.bit(); // qpprime_y_zero_transform_bypass_flag
+            if (r.bit()) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (r.bit()) {
+                        skipScalingList(r, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        r.ue(); // log2_max_frame_num_minus4
+        int picOrderCntType = r.ue();
+        if (picOrderCntType == 0) {
+            r.ue(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            r.bit(); // delta_pic_order_always_zero_flag
+            r.se(); // offset_for_non_ref_pic
+            r.se(); // offset_for_top_to_bottom_field
+            int cycle = r.ue();
+            for (int i = 0; i < cycle; i++) {
+                r.se();
+            }
+        }
+        r.ue(); // max_num_ref_frames
+        r.bit(); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = r.ue() + 1;
+        int heightInMapUnits = r.ue() + 1;
+        boolean frameMbsOnly = r.bit();
+        if (!frameMbsOnly) {
+            r.bit(); // mb_adaptive_frame_field_flag
+        }
+        r.bit(); // direct_8x8_inference_flag
+
+        int width = widthInMbs * 16;
+        int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+        if (r.bit()) { // frame_cropping_flag
+            int left = r.ue();
+            int right = r.ue();
+            int top = r.ue();
+            int bottom = r.ue();
+            int cropUnitX = 1;
+            int cropUnitY = frameMbsOnly ? 1 : 2;
+            if (chromaFormatIdc != 0 && !separateColourPlane) {
+                cropUnitX *= chromaFormatIdc == 3 ? 1 : 2;
+                cropUnitY *= chromaFormatIdc == 1 ? 2 : 1;
+            }
+            width -= cropUnitX * (left + right);
+            height -= cropUnitY * (top + bottom);
+        }
+        return width > 0 && height > 0 ? new H264Sps(width, height) : null;
+    }
+
+    private static void skipScalingList(BitReader r, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + r.se() + 256) % 256;
+            }
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    /** Drops emulation prevention bytes (00 00 03 -> 00 00). */
+    private static byte[] unescape(byte[] nal, int from) {
+        byte[] out = new byte[nal.length - from];
+        int length = 0;
+        int zeros = 0;
+        for (int i = from; i < nal.length; i++) {
+            byte b = nal[i];
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            out[length++] = b;
+        }
+        return out;
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int position = 0;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean bit() {
+            int value = (data[position >> 3] >> (7 - (position & 7))) & 1;
+            position++;
+            return value == 1;
+        }
+
+        int bits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (bit() ? 1 : 0);
+            }
+            return value;
+        }
+
+        int ue() {
+            int leadingZeros = 0;
+            while (!bit()) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new ArrayIndexOutOfBoundsException("Invalid Exp-Golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + bits(leadingZeros));
+        }
+
+        int se() {
+            int value = ue();
+            return (value & 1) == 1 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.rtsprecorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Cuts the ingest transport stream into short HLS media segments at keyframes and keeps
+ * the newest {@code windowSize} of them in memory, so live viewers are served from the
+ * recording's own ingest instead of opening another session to the camera.
+ *
+ * Packets are appended to one reusable buffer (reset() keeps its array); a finished
+ * segment is copied out once into an immutable array that HTTP threads can send
+ * without further locking.
+ */
+public class HlsSegmenter implements TsIngestTap.Listener {
+
+    private static final int PACKET = TsIngestTap.TS_PACKET_SIZE;
+
+    public static final class Segment {
+        public final long sequence;
+        public final byte[] data;
+        public final long durationMs;
+        public final boolean discontinuity;
+
+        Segment(long sequence, byte[] data, long durationMs, boolean discontinuity) {
+            this.sequence = sequence;
+            this.data = data;
+            this.durationMs = durationMs;
+            this.discontinuity = discontinuity;
+        }
+    }
+
+    private final TsIngestTap tap;
+    private final long targetDurationMs;
+    private final int windowSize;
+
+    private final ArrayDeque<Segment> window = new ArrayDeque<>();
+    private long nextSequence = 0;
+
+    // Segment in progress, reader thread only
+    private final ByteArrayOutputStream current = new ByteArrayOutputStream(1024 * 1024);
+    private long currentStartMs = 0;
+    private boolean inSegment = false;
+    private boolean discontinuity = false;
+
+    public HlsSegmenter(TsIngestTap tap, long targetDurationMs, int windowSize) {
+        this.tap = tap;
+        this.targetDurationMs = targetDurationMs;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void onTsPacket(byte[] packet, int offset, boolean keyframe, long receivedAtMs) {
+        if (keyframe && (!inSegment || receivedAtMs - currentStartMs >= targetDurationMs)) {
+            if (inSegment) {
+                publish(receivedAtMs - currentStartMs);
+            }
+            startSegment(receivedAtMs);
+        }
+        if (inSegment) {
+            current.write(packet, offset, PACKET);
+        }
+    }
+
+    @Override
+    public void onStreamEnd() {
+        // The partial segment would end mid-GOP; drop it and flag the gap for players
+        inSegment = false;
+        current.reset();
+        discontinuity = true;
+    }
+
+    /** Builds the sliding-window media playlist; segments are named {@code seg_<sequence>.ts}. */
+    public String buildPlaylist() {
+        StringBuilder playlist = new StringBuilder(256 + windowSize * 48);
+        synchronized (window) {
+            long firstSequence = window.isEmpty() ? nextSequence : window.peekFirst().sequence;
+            // Only the listed segments count, so one long GOP stops inflating it once it leaves the window
+            long maxDurationMs = targetDurationMs;
+            for (Segment segment : window) {
+                maxDurationMs = Math.max(maxDurationMs, segment.durationMs);
+            }
+            long targetSeconds = Math.max(1, (maxDurationMs + 999) / 1000);
+            playlist.append("#EXTM3U\n")
+                    .append("#EXT-X-VERSION:3\n")
+                    .append("#EXT-X-TARGETDURATION:").append(targetSeconds).append('\n')
+                    .append("#EXT-X-MEDIA-SEQUENCE:").append(firstSequence).append('\n');
+            for (Segment segment : window) {
+                if (segment.discontinuity) {
+                    playlist.append("#EXT-X-DISCONTINUITY\n");
+                }
+                playlist.append(String.format(Locale.US, "#EXTINF:%.3f,\n", segment.durationMs / 1000.0))
+                        .append("seg_").append(segment.sequence).append(".ts\n");
+            }
+        }
+        return playlist.toString();
+    }
+
+    /** Returns the segment if it is still in the window, otherwise null. */
+    public Segment getSegment(long sequence) {
+        synchronized (window) {
+            for (Segment segment : window) {
+                if (segment.sequence == sequence) {
+                    return segment;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void startSegment(long nowMs) {
+        current.reset();
+        currentStartMs = nowMs;
+        inSegment = tap.hasPsi();
+        if (inSegment) {
+            try {
+                tap.writePsi(current);
+            } catch (IOException e) {
+                inSegment = false; // cannot happen for an in-memory buffer
+            }
+        }
+    }
+
+    private void publish(long durationMs) {
+        byte[] data = current.toByteArray();
+        synchronized (window) {
+            window.addLast(new Segment(nextSequence++, data, durationMs, discontinuity));
+            while (window.size() > windowSize) {
+                window.removeFirst();
+            }
+        }
+        discontinuity = false;
+    }
+}
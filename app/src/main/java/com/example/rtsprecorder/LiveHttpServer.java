@@ -0,0 +1,223 @@
+package com.example.rtsprecorder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiny HTTP/1.0-style server for the live HLS window of an {@link HlsSegmenter}.
+ *
+ * Routes: {@code /<token>/live.m3u8} (playlist) and {@code /<token>/seg_<n>.ts} (media
+ * segments). The token is random per server instance and only shown to the user, so
+ * viewers need the full URL; anything else gets a 404. The socket is bound to the LAN
+ * address only, and no CORS header is sent, so other origins' pages cannot read the
+ * feed. Every response closes the connection; players re-request the playlist every
+ * target duration anyway. Connections beyond the thread pool and its short queue are
+ * closed at once rather than piling up behind slow viewers.
+ */
+public class LiveHttpServer {
+
+    private static final int MAX_CLIENT_THREADS = 8;
+    private static final int MAX_QUEUED_CLIENTS = 16;
+    private static final int SOCKET_TIMEOUT_MS = 10000;
+    private static final int TOKEN_BYTES = 16;
+
+    private final HlsSegmenter segmenter;
+    private final int port;
+    private final MainActivity.LogCallback log;
+    private final String token;
+    private InetAddress bindAddress;
+    private ServerSocket serverSocket;
+    private ThreadPoolExecutor clientPool;
+    private Thread acceptThread;
+    private volatile boolean running = false;
+
+    public LiveHttpServer(HlsSegmenter segmenter, int port, MainActivity.LogCallback log) {
+        this.segmenter = segmenter;
+        this.port = port;
+        this.log = log;
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : random) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        this.token = hex.toString();
+    }
+
+    /** Binds to the Wi-Fi/LAN address; fails when the phone has none. */
+    public void start() throws IOException {
+        bindAddress = findLanAddress();
+        if (bindAddress == null) {
+            throw new IOException("no Wi-Fi/LAN address");
+        }
+        serverSocket = new ServerSocket(port, 0, bindAddress);
+        clientPool = new ThreadPoolExecutor(MAX_CLIENT_THREADS, MAX_CLIENT_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_CLIENTS));
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "LiveHttpServer");
+        acceptThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        if (clientPool != null) {
+            clientPool.shutdownNow();
+        }
+        acceptThread = null;
+    }
+
+    /** Playlist URL including the session token, for display to the user. Valid after {@link #start}. */
+    public String getPlaylistUrl() {
+        return "http://" + bindAddress.getHostAddress() + ":" + port + "/" + token + "/live.m3u8";
+    }
+
+    // Site-local IPv4 address of an interface that is up, preferring Wi-Fi (wlan*)
+    private static InetAddress findLanAddress() {
+        InetAddress found = null;
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        if (networkInterface.getName().startsWith("wlan")) {
+                            return address;
+                        }
+                        if (found == null) {
+                            found = address;
+                        }
+                    }
+                }
+            }
+        } catch (SocketException ignored) {
+        }
+        return found;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                client.setSoTimeout(SOCKET_TIMEOUT_MS);
+                try {
+                    clientPool.execute(() -> handle(client));
+                } catch (RejectedExecutionException e) {
+                    // Pool and queue are full (or stopping): drop the connection, the player retries
+                    client.close();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.log("ERROR: Live server accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            // Headers are not needed; the request line carries everything we route on
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                // skip
+            }
+
+            String[] parts = requestLine.split(" ");
+            OutputStream out = socket.getOutputStream();
+            if (parts.length < 2 || !("GET".equals(parts[0]) || "HEAD".equals(parts[0]))) {
+                respond(out, "405 Method Not Allowed", "text/plain", "Method not allowed\n".getBytes(), true);
+                return;
+            }
+            boolean withBody = "GET".equals(parts[0]);
+            String path = parts[1];
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+
+            // Requests without the token learn nothing, not even that the route exists
+            path = stripToken(path);
+            if (path == null) {
+                respond(out, "404 Not Found", "text/plain", "Not found\n".getBytes(), withBody);
+            } else if ("/live.m3u8".equals(path)) {
+                byte[] playlist = segmenter.buildPlaylist().getBytes(StandardCharsets.UTF_8);
+                respond(out, "200 OK", "application/vnd.apple.mpegurl", playlist, withBody);
+            } else if (path.startsWith("/seg_") && path.endsWith(".ts")) {
+                HlsSegmenter.Segment segment = parseSegment(path);
+                if (segment != null) {
+                    respond(out, "200 OK", "video/mp2t", segment.data, withBody);
+                } else {
+                    respond(out, "404 Not Found", "text/plain", "Segment expired\n".getBytes(), withBody);
+                }
+            } else {
+                respond(out, "404 Not Found", "text/plain", "Not found\n".getBytes(), withBody);
+            }
+        } catch (IOException e) {
+            // Viewers disconnecting mid-response is normal
+        }
+    }
+
+    // The rest of the path after "/<token>", or null when the token is missing or wrong
+    private String stripToken(String path) {
+        int end = path.indexOf('/', 1);
+        if (!path.startsWith("/") || end < 0) {
+            return null;
+        }
+        byte[] given = path.substring(1, end).getBytes(StandardCharsets.US_ASCII);
+        // Constant time, so the token cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(given, token.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        return path.substring(end);
+    }
+
+    private HlsSegmenter.Segment parseSegment(String path) {
+        try {
+            long sequence = Long.parseLong(path.substring("/seg_".length(), path.length() - ".ts".length()));
+            return segmenter.getSegment(sequence);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, byte[] body, boolean withBody) throws IOException {
+        String headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        if (withBody) {
+            out.write(body);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.rtsprecorder;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Debug;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Decodes the ingest video with a MediaCodec decoder and, at most every
+ * {@code sampleIntervalMs}, downscales the luma plane of a decoded frame into a
+ * {@link MotionDetector#GRID_WIDTH} x {@link MotionDetector#GRID_HEIGHT} grid for the
+ * {@link MotionDetector}. Frames that are not sampled are released without being read.
+ *
+ * With {@code keyframesOnly} only keyframes are decoded, each on its own, so a
+ * full-resolution main stream costs one intra frame per GOP instead of a full-rate
+ * decode; sampling then follows the keyframe interval. A low-resolution sub-stream is
+ * cheap enough to decode completely.
+ *
+ * Input is queued from the tap thread without blocking: if the decoder has no free
+ * input buffer the frame is dropped and decoding resumes at the next keyframe. The CPU
+ * time spent in this process is logged every minute; the decode itself runs in the
+ * platform's codec process and is not included.
+ */
+public class LumaSampler implements AccessUnitAssembler.Listener {
+
+    private static final long OUTPUT_TIMEOUT_US = 100000;
+    private static final long CPU_REPORT_INTERVAL_MS = 60000;
+
+    private final AccessUnitAssembler source;
+    private final long sampleIntervalUs;
+    private final boolean keyframesOnly;
+    private final MotionDetector detector;
+    private final MainActivity.LogCallback log;
+
+    private final byte[] luma = new byte[MotionDetector.GRID_WIDTH * MotionDetector.GRID_HEIGHT];
+    private final int[] columnOffsets = new int[MotionDetector.GRID_WIDTH];
+    private final int[] rowOffsets = new int[MotionDetector.GRID_HEIGHT];
+    private int mappedWidth = -1;
+    private int mappedHeight = -1;
+    private int mappedRowStride = -1;
+    private int mappedPixelStride = -1;
+
+    private MediaCodec decoder;
+    private Thread outputThread;
+    private volatile boolean decoding = false;
+    private boolean waitingForKeyframe = true;
+    private volatile long wallClockOffsetMs = 0;
+    // CPU time spent queueing input, on the tap thread
+    private volatile long inputCpuNanos = 0;
+
+    public LumaSampler(AccessUnitAssembler source, long sampleIntervalMs, boolean keyframesOnly,
+                       MotionDetector detector, MainActivity.LogCallback log) {
+        this.source = source;
+        this.sampleIntervalUs = sampleIntervalMs * 1000;
+        this.keyframesOnly = keyframesOnly;
+        this.detector = detector;
+        this.log = log;
+    }
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        if (ptsUs < 0 || (keyframesOnly && !keyframe)) {
+            return;
+        }
+        long cpuStart = Debug.threadCpuTimeNanos();
+        queueInput(data, length, ptsUs, keyframe, receivedAtMs);
+        inputCpuNanos += Debug.threadCpuTimeNanos() - cpuStart;
+    }
+
+    private void queueInput(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        if (waitingForKeyframe) {
+            if (!keyframe) {
+                return;
+            }
+            if (decoder == null && !startDecoder(data, length)) {
+                return;
+            }
+            wallClockOffsetMs = receivedAtMs - ptsUs / 1000;
+            waitingForKeyframe = false;
+        }
+
+        try {
+            int index = decoder.dequeueInputBuffer(0);
+            if (index < 0) {
+                waitingForKeyframe = true;
+                return;
+            }
+            ByteBuffer input = decoder.getInputBuffer(index);
+            if (input == null || input.capacity() < length) {
+                decoder.queueInputBuffer(index, 0, 0, ptsUs, 0);
+                waitingForKeyframe = true;
+                return;
+            }
+            input.clear();
+            input.put(data, 0, length);
+            decoder.queueInputBuffer(index, 0, length, ptsUs, keyframe ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        } catch (IllegalStateException e) {
+            log.log("ERROR: Motion decoder input failed: " + e.getMessage());
+            stopDecoder();
+        }
+    }
+
+    @Override
+    public void onStreamEnd() {
+        stopDecoder();
+        detector.endMotion(System.currentTimeMillis());
+    }
+
+    private boolean startDecoder(byte[] keyframe, int length) {
+        int streamType = source.getStreamType();
+        byte[][] parameterSets = AccessUnitAssembler.extractParameterSets(keyframe, length, streamType);
+        if (parameterSets == null) {
+            return false;
+        }
+        String mime = streamType == TsIngestTap.STREAM_TYPE_HEVC
+                ? MediaFormat.MIMETYPE_VIDEO_HEVC
+                : MediaFormat.MIMETYPE_VIDEO_AVC;
+        MediaFormat format = MediaFormat.createVideoFormat(mime, 1920, 1080);
+        for (int i = 0; i < parameterSets.length; i++) {
+            format.setByteBuffer("csd-" + i, ByteBuffer.wrap(parameterSets[i]));
+        }
+        format.setInteger(MediaFormat.KEY_PRIORITY, 1); // best effort, not realtime
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // Keyframe-only input never pushes out frames a decoder holds back for reordering
+            format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+        }
+        try {
+            decoder = MediaCodec.createDecoderByType(mime);
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+        } catch (Exception e) {
+            log.log("ERROR: Failed to start motion decoder: " + e.getMessage());
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+            return false;
+        }
+        decoding = true;
+        outputThread = new Thread(this::drainOutput, "LumaSampler");
+        outputThread.setPriority(Thread.MIN_PRIORITY);
+        outputThread.start();
+        log.log("Motion decoder started (" + decoder.getName() + (keyframesOnly ? ", keyframes only)" : ")"));
+        return true;
+    }
+
+    private void stopDecoder() {
+        decoding = false;
+        if (outputThread != null) {
+            try {
+                outputThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            outputThread = null;
+        }
+        if (decoder != null) {
+            try {
+                decoder.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            decoder.release();
+            decoder = null;
+        }
+        waitingForKeyframe = true;
+    }
+
+    private void drainOutput() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long lastSampleUs = Long.MIN_VALUE;
+        long reportWallMs = System.currentTimeMillis();
+        long reportCpuNanos = Debug.threadCpuTimeNanos() + inputCpuNanos;
+        while (decoding) {
+            long nowMs = System.currentTimeMillis();
+            if (nowMs - reportWallMs >= CPU_REPORT_INTERVAL_MS) {
+                long cpuNanos = Debug.threadCpuTimeNanos() + inputCpuNanos;
+                log.log(String.format(Locale.US, "Motion sampler CPU: %.2f%% of one core",
+                        (cpuNanos - reportCpuNanos) / 1e4 / (nowMs - reportWallMs)));
+                reportWallMs = nowMs;
+                reportCpuNanos = cpuNanos;
+            }
+            int index;
+            try {
+                index = decoder.dequeueOutputBuffer(info, OUTPUT_TIMEOUT_US);
+            } catch (IllegalStateException e) {
+                return;
+            }
+            if (index < 0) {
+                continue;
+            }
+            long ptsUs = info.presentationTimeUs;
+            boolean sample = ptsUs < lastSampleUs || ptsUs - lastSampleUs >= sampleIntervalUs;
+            if (sample && info.size > 0) {
+                Image image = decoder.getOutputImage(index);
+                if (image != null) {
+                    downscaleLuma(image);
+                    image.close();
+                    lastSampleUs = ptsUs;
+                    detector.process(luma, wallClockOffsetMs + ptsUs / 1000);
+                }
+            }
+            decoder.releaseOutputBuffer(index, false);
+        }
+    }
+
+    private void downscaleLuma(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buffer = plane.getBuffer();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        if (width != mappedWidth || height != mappedHeight
+                || rowStride != mappedRowStride || pixelStride != mappedPixelStride) {
+            mapGrid(width, height, rowStride, pixelStride);
+        }
+
+        int gridWidth = MotionDetector.GRID_WIDTH;
+        for (int y = 0; y < MotionDetector.GRID_HEIGHT; y++) {
+            int row = rowOffsets[y];
+            int out = y * gridWidth;
+            for (int x = 0; x < gridWidth; x++) {
+                // 2x2 average keeps sensor noise from flickering single samples
+                int p = row + columnOffsets[x];
+                int sum = (buffer.get(p) & 0xFF) + (buffer.get(p + pixelStride) & 0xFF)
+                        + (buffer.get(p + rowStride) & 0xFF) + (buffer.get(p + rowStride + pixelStride) & 0xFF);
+                luma[out + x] = (byte) (sum >> 2);
+            }
+        }
+    }
+
+    private void mapGrid(int width, int height, int rowStride, int pixelStride) {
+        for (int x = 0; x < MotionDetector.GRID_WIDTH; x++) {
+            int sourceX = Math.min(x * width / MotionDetector.GRID_WIDTH, width - 2);
+            columnOffsets[x] = sourceX * pixelStride;
+        }
+        for (int y = 0; y < MotionDetector.GRID_HEIGHT; y++) {
+            int sourceY = Math.min(y * height / MotionDetector.GRID_HEIGHT, height - 2);
+            rowOffsets[y] = sourceY * rowStride;
+        }
+        mappedWidth = width;
+        mappedHeight = height;
+        mappedRowStride = rowStride;
+        mappedPixelStride = pixelStride;
+    }
+}
@@ -18,9 +18,13 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager; // <-- WAKELOCK IMPORT ADDED BACK
+import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ScrollView;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -37,28 +41,62 @@ import org.videolan.libvlc.MediaPlayer;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
 
+import javax.crypto.SecretKey;
+
 public class MainActivity extends AppCompatActivity {
 
     // --- CONSTANTS FOR PREFERENCES ---
     public static final String PREFS_NAME = "RTSPRecorderPrefs";
     public static final String KEY_RTSP_URL = "lastRtspUrl";
+    public static final String KEY_SUB_RTSP_URL = "lastSubRtspUrl";
     public static final String KEY_FOLDER_URI = "lastFolderUri";
     public static final String KEY_LOGGING_ENABLED = "loggingEnabled";
+    public static final String KEY_RECORDING_MODE = "recordingMode";
+    public static final String KEY_ENCODING_PROFILE = "encodingProfile";
+    public static final String KEY_PRE_ROLL_SECONDS = "preRollSeconds";
+    public static final String KEY_POST_ROLL_SECONDS = "postRollSeconds";
+    public static final String KEY_SEGMENT_DURATION_MINUTES = "segmentDurationMinutes";
+    public static final String KEY_MOTION_DETECTION = "motionDetection";
+    public static final String KEY_TIMELAPSE_INTERVAL_SECONDS = "timelapseIntervalSeconds";
+    public static final String KEY_THUMBNAILS = "thumbnails";
+    public static final String KEY_LIVE_PREVIEW = "livePreview";
+    public static final String KEY_ENCRYPT_SEGMENTS = "encryptSegments";
+    public static final String KEY_UPLOAD_URL = "uploadUrl";
+    public static final String KEY_UPLOAD_LIMIT_KBPS = "uploadLimitKbps";
     // -----------------------------------
 
     private EditText rtspUrlEditText;
+    private EditText subRtspUrlEditText;
+    private EditText uploadUrlEditText;
+    private EditText uploadLimitEditText;
+    private EditText segmentDurationEditText;
+    private EditText preRollEditText;
+    private EditText postRollEditText;
+    private EditText timelapseIntervalEditText;
     private Button startRecordingButton;
     private TextView outputFilePathTextView;
     private TextView logTextView;
     private Button clearLogButton;
     private Button saveLogButton;
     private Button toggleLogButton;
+    private Spinner recordingModeSpinner;
+    private Spinner encodingProfileSpinner;
+    private Button triggerEventButton;
+    private CheckBox motionDetectionCheckBox;
+    private CheckBox thumbnailsCheckBox;
+    private CheckBox livePreviewCheckBox;
+    private TextView livePreviewUrlTextView;
+    private CheckBox encryptSegmentsCheckBox;
 
     private Uri outputFolderUri;
     private final StringBuilder logBuilder = new StringBuilder();
@@ -89,6 +127,24 @@ public class MainActivity extends AppCompatActivity {
                         }
                     });
 
+    private final ActivityResultLauncher<Intent> exportDecryptedLauncher =
+            registerForActivityResult(new ActivityResultContracts.StartActivityForResult(),
+                    result -> {
+                        if (result.getResultCode() != AppCompatActivity.RESULT_OK || result.getData() == null) {
+                            return;
+                        }
+                        Intent data = result.getData();
+                        ArrayList<Uri> sources = new ArrayList<>();
+                        if (data.getClipData() != null) {
+                            for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                                sources.add(data.getClipData().getItemAt(i).getUri());
+                            }
+                        } else if (data.getData() != null) {
+                            sources.add(data.getData());
+                        }
+                        exportDecrypted(sources);
+                    });
+
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName className, IBinder service) {
@@ -96,6 +152,7 @@ public class MainActivity extends AppCompatActivity {
             recordingService = binder.getService();
             recordingService.setLogCallback(MainActivity.this::addLog);
             isBound = true;
+            showLivePreviewUrl(recordingService.getLivePreviewUrl());
             if (recordingService.isRecording()) {
                 isRecording = true;
                 startRecordingButton.setText("Stop Recording");
@@ -109,6 +166,7 @@ public class MainActivity extends AppCompatActivity {
         public void onServiceDisconnected(ComponentName arg0) {
             isBound = false;
             recordingService = null;
+            showLivePreviewUrl(null);
             addLog("Disconnected from recording service");
         }
     };
@@ -121,6 +179,13 @@ public class MainActivity extends AppCompatActivity {
 
         // Find all views
         rtspUrlEditText = findViewById(R.id.rtspUrl);
+        subRtspUrlEditText = findViewById(R.id.subRtspUrl);
+        uploadUrlEditText = findViewById(R.id.uploadUrl);
+        uploadLimitEditText = findViewById(R.id.uploadLimitKbps);
+        segmentDurationEditText = findViewById(R.id.segmentDurationMinutes);
+        preRollEditText = findViewById(R.id.preRollSeconds);
+        postRollEditText = findViewById(R.id.postRollSeconds);
+        timelapseIntervalEditText = findViewById(R.id.timelapseIntervalSeconds);
         startRecordingButton = findViewById(R.id.startRecording);
         Button selectOutputFolderButton = findViewById(R.id.selectOutputFile);
         outputFilePathTextView = findViewById(R.id.outputFilePath);
@@ -128,6 +193,25 @@ public class MainActivity extends AppCompatActivity {
         clearLogButton = findViewById(R.id.clearLogButton);
         saveLogButton = findViewById(R.id.saveLogButton);
         toggleLogButton = findViewById(R.id.toggleLogButton);
+        recordingModeSpinner = findViewById(R.id.recordingMode);
+        encodingProfileSpinner = findViewById(R.id.encodingProfile);
+        triggerEventButton = findViewById(R.id.triggerEventButton);
+        motionDetectionCheckBox = findViewById(R.id.motionDetection);
+        thumbnailsCheckBox = findViewById(R.id.thumbnails);
+        livePreviewCheckBox = findViewById(R.id.livePreview);
+        livePreviewUrlTextView = findViewById(R.id.livePreviewUrl);
+        encryptSegmentsCheckBox = findViewById(R.id.encryptSegments);
+        Button exportDecryptedButton = findViewById(R.id.exportDecryptedButton);
+        Button benchmarkEncryptionButton = findViewById(R.id.benchmarkEncryptionButton);
+
+        ArrayAdapter<CharSequence> modeAdapter = ArrayAdapter.createFromResource(
+                this, R.array.recording_modes, android.R.layout.simple_spinner_item);
+        modeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        recordingModeSpinner.setAdapter(modeAdapter);
+        ArrayAdapter<CharSequence> profileAdapter = ArrayAdapter.createFromResource(
+                this, R.array.encoding_profiles, android.R.layout.simple_spinner_item);
+        profileAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        encodingProfileSpinner.setAdapter(profileAdapter);
 
         // --- LOAD SAVED PREFERENCES ---
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -137,6 +221,12 @@ public class MainActivity extends AppCompatActivity {
         if (savedUrl != null) {
             rtspUrlEditText.setText(savedUrl);
         }
+        String savedSubUrl = prefs.getString(KEY_SUB_RTSP_URL, null);
+        if (savedSubUrl != null) {
+            subRtspUrlEditText.setText(savedSubUrl);
+        }
+        uploadUrlEditText.setText(prefs.getString(KEY_UPLOAD_URL, ""));
+        uploadLimitEditText.setText(String.valueOf(prefs.getInt(KEY_UPLOAD_LIMIT_KBPS, 1024)));
 
         // Load Folder URI
         String savedUriString = prefs.getString(KEY_FOLDER_URI, null);
@@ -163,6 +253,22 @@ public class MainActivity extends AppCompatActivity {
         // Load logging preference
         isLoggingEnabled = prefs.getBoolean(KEY_LOGGING_ENABLED, true);
         updateToggleLogButtonText();
+
+        // Load recording mode
+        String savedMode = prefs.getString(KEY_RECORDING_MODE, RecordingService.MODE_CONTINUOUS);
+        recordingModeSpinner.setSelection(RecordingService.modeToIndex(savedMode));
+        segmentDurationEditText.setText(String.valueOf(prefs.getInt(KEY_SEGMENT_DURATION_MINUTES, 3)));
+        preRollEditText.setText(String.valueOf(prefs.getInt(KEY_PRE_ROLL_SECONDS, 30)));
+        postRollEditText.setText(String.valueOf(prefs.getInt(KEY_POST_ROLL_SECONDS, 30)));
+        timelapseIntervalEditText.setText(String.valueOf(prefs.getInt(KEY_TIMELAPSE_INTERVAL_SECONDS, 10)));
+        encodingProfileSpinner.setSelection(EncodingProfile.toSpinnerIndex(
+                prefs.getString(KEY_ENCODING_PROFILE, EncodingProfile.AUTO)));
+
+        // Load motion detection preference
+        motionDetectionCheckBox.setChecked(prefs.getBoolean(KEY_MOTION_DETECTION, false));
+        thumbnailsCheckBox.setChecked(prefs.getBoolean(KEY_THUMBNAILS, false));
+        livePreviewCheckBox.setChecked(prefs.getBoolean(KEY_LIVE_PREVIEW, false));
+        encryptSegmentsCheckBox.setChecked(prefs.getBoolean(KEY_ENCRYPT_SEGMENTS, false));
         // ------------------------------------
 
         selectOutputFolderButton.setText("Select Output Folder");
@@ -180,6 +286,7 @@ public class MainActivity extends AppCompatActivity {
             if (isRecording) {
                 addLog("Stopping recording...");
                 stopRecordingService();
+                showLivePreviewUrl(null);
                 isRecording = false;
                 startRecordingButton.setText("Start Recording");
             } else {
@@ -195,12 +302,30 @@ public class MainActivity extends AppCompatActivity {
                     return;
                 }
 
-                addLog("Starting recording: " + rtspUrl);
-                startRecordingService(rtspUrl, outputFolderUri);
+                String subRtspUrl = subRtspUrlEditText.getText().toString().trim();
+                String recordingMode = RecordingService.indexToMode(recordingModeSpinner.getSelectedItemPosition());
+                addLog("Starting recording (" + recordingMode + "): " + rtspUrl);
+                if (!subRtspUrl.isEmpty()) {
+                    addLog("Sub-stream: " + subRtspUrl);
+                }
+                startRecordingService(rtspUrl, subRtspUrl, outputFolderUri, recordingMode);
 
                 getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
                         .edit()
                         .putString(KEY_RTSP_URL, rtspUrl)
+                        .putString(KEY_SUB_RTSP_URL, subRtspUrl)
+                        .putString(KEY_UPLOAD_URL, uploadUrlEditText.getText().toString().trim())
+                        .putInt(KEY_UPLOAD_LIMIT_KBPS, readUploadLimitKbps())
+                        .putString(KEY_RECORDING_MODE, recordingMode)
+                        .putInt(KEY_SEGMENT_DURATION_MINUTES, readPositiveInt(segmentDurationEditText, 3))
+                        .putInt(KEY_PRE_ROLL_SECONDS, readPositiveInt(preRollEditText, 30))
+                        .putInt(KEY_POST_ROLL_SECONDS, readPositiveInt(postRollEditText, 30))
+                        .putInt(KEY_TIMELAPSE_INTERVAL_SECONDS, readPositiveInt(timelapseIntervalEditText, 10))
+                        .putString(KEY_ENCODING_PROFILE, EncodingProfile.fromSpinnerIndex(encodingProfileSpinner.getSelectedItemPosition()))
+                        .putBoolean(KEY_MOTION_DETECTION, motionDetectionCheckBox.isChecked())
+                        .putBoolean(KEY_THUMBNAILS, thumbnailsCheckBox.isChecked())
+                        .putBoolean(KEY_LIVE_PREVIEW, livePreviewCheckBox.isChecked())
+                        .putBoolean(KEY_ENCRYPT_SEGMENTS, encryptSegmentsCheckBox.isChecked())
                         .apply();
 
                 isRecording = true;
@@ -216,6 +341,29 @@ public class MainActivity extends AppCompatActivity {
 
         saveLogButton.setOnClickListener(v -> saveLogToFile());
 
+        triggerEventButton.setOnClickListener(v -> {
+            if (isBound && recordingService != null && recordingService.isEventMode()) {
+                recordingService.triggerEvent("manual");
+            } else {
+                Toast.makeText(MainActivity.this, "Event recording is not running", Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        exportDecryptedButton.setOnClickListener(v -> {
+            if (outputFolderUri == null) {
+                Toast.makeText(MainActivity.this, "Please select an output folder", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            exportDecryptedLauncher.launch(intent);
+        });
+
+        benchmarkEncryptionButton.setOnClickListener(v ->
+                new Thread(() -> SegmentCipherBenchmark.run(getCacheDir(), this::addLog), "CipherBenchmark").start());
+
         toggleLogButton.setOnClickListener(v -> {
             isLoggingEnabled = !isLoggingEnabled;
             String status = isLoggingEnabled ? "ENABLED" : "DISABLED";
@@ -315,14 +463,107 @@ public class MainActivity extends AppCompatActivity {
         }).start();
     }
 
-    private void startRecordingService(String rtspUrl, Uri outputFolderUri) {
+    /** Writes decrypted copies of encrypted segments into the output folder, next to the originals. */
+    private void exportDecrypted(ArrayList<Uri> sources) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        addLog("Exporting " + sources.size() + " encrypted file(s)...");
+        new Thread(() -> {
+            DocumentFile folder = DocumentFile.fromTreeUri(this, outputFolderUri);
+            if (folder == null || !folder.exists() || !folder.isDirectory()) {
+                addLog("ERROR: Output folder not accessible");
+                return;
+            }
+            SecretKey masterKey;
+            try {
+                masterKey = SegmentCipher.getOrCreateMasterKey();
+            } catch (Exception e) {
+                addLog("ERROR: Segment key unavailable: " + e.getMessage());
+                return;
+            }
+            for (Uri source : sources) {
+                DocumentFile sourceFile = DocumentFile.fromSingleUri(this, source);
+                String name = sourceFile != null && sourceFile.getName() != null ? sourceFile.getName() : source.getLastPathSegment();
+                if (name == null || !name.endsWith(SegmentCipher.FILE_SUFFIX)) {
+                    addLog("WARN: Skipping " + name + " - not an encrypted segment");
+                    continue;
+                }
+                String plainName = name.substring(0, name.length() - SegmentCipher.FILE_SUFFIX.length());
+                String mimeType = plainName.endsWith(".ts") ? "video/mp2t"
+                        : plainName.endsWith(".jpg") ? "image/jpeg"
+                        : plainName.endsWith(".json") ? "application/json" : "video/mp4";
+                DocumentFile target = folder.createFile(mimeType, plainName);
+                if (target == null) {
+                    addLog("ERROR: Failed to create file " + plainName);
+                    continue;
+                }
+                try (InputStream in = new SegmentCipher.DecryptingInputStream(
+                        getContentResolver().openInputStream(source), masterKey);
+                     OutputStream out = getContentResolver().openOutputStream(target.getUri())) {
+                    if (out == null) {
+                        throw new IOException("Cannot open " + plainName);
+                    }
+                    byte[] buffer = new byte[16384];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                    addLog("✓ Exported " + name + " -> " + plainName);
+                } catch (IOException | SecurityException e) {
+                    addLog("ERROR exporting " + name + ": " + e.getMessage());
+                    target.delete();
+                }
+            }
+        }).start();
+    }
+
+    private void startRecordingService(String rtspUrl, String subRtspUrl, Uri outputFolderUri, String recordingMode) {
         Intent serviceIntent = new Intent(this, RecordingService.class);
         serviceIntent.putExtra("rtspUrl", rtspUrl);
+        serviceIntent.putExtra("subRtspUrl", subRtspUrl);
         serviceIntent.putExtra("outputFolderUri", outputFolderUri.toString());
+        serviceIntent.putExtra("recordingMode", recordingMode);
+        serviceIntent.putExtra("encodingProfile", EncodingProfile.fromSpinnerIndex(encodingProfileSpinner.getSelectedItemPosition()));
+        serviceIntent.putExtra("preRollSeconds", readPositiveInt(preRollEditText, 30));
+        serviceIntent.putExtra("postRollSeconds", readPositiveInt(postRollEditText, 30));
+        serviceIntent.putExtra("segmentDurationMinutes", readPositiveInt(segmentDurationEditText, 3));
+        serviceIntent.putExtra("motionDetection", motionDetectionCheckBox.isChecked());
+        serviceIntent.putExtra("thumbnails", thumbnailsCheckBox.isChecked());
+        serviceIntent.putExtra("livePreview", livePreviewCheckBox.isChecked());
+        serviceIntent.putExtra("encryptSegments", encryptSegmentsCheckBox.isChecked());
+        serviceIntent.putExtra("uploadUrl", uploadUrlEditText.getText().toString().trim());
+        serviceIntent.putExtra("uploadLimitKbps", readUploadLimitKbps());
+        serviceIntent.putExtra("timelapseIntervalSeconds", readPositiveInt(timelapseIntervalEditText, 10));
         ContextCompat.startForegroundService(this, serviceIntent);
         bindService(serviceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
+    // Empty, zero or unparsable input falls back to the default
+    private static int readPositiveInt(EditText field, int defaultValue) {
+        try {
+            int value = Integer.parseInt(field.getText().toString().trim());
+            return value > 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // 0 turns the limit off, so unlike readPositiveInt() it is a valid value
+    private int readUploadLimitKbps() {
+        try {
+            return Math.max(0, Integer.parseInt(uploadLimitEditText.getText().toString().trim()));
+        } catch (NumberFormatException e) {
+            return 1024;
+        }
+    }
+
+    // The URL carries the session token, so it is only shown while that session runs
+    private void showLivePreviewUrl(String url) {
+        livePreviewUrlTextView.setText(url);
+        livePreviewUrlTextView.setVisibility(url != null ? View.VISIBLE : View.GONE);
+    }
+
     private void stopRecordingService() {
         if (isBound) {
             unbindService(serviceConnection);
@@ -356,13 +597,51 @@ public class MainActivity extends AppCompatActivity {
     // --- RECORDING SERVICE ---
     //
     public static class RecordingService extends Service {
-        private static final long SEGMENT_DURATION_MS = 3 * 60 * 1000; // 3 minutes
+        // How long a save waits for the ingest tap to see the end of the stopped stream
+        private static final long FRAME_TIMING_WAIT_MS = 2000;
         private static final long RECONNECT_DELAY_SHORT_MS = 3000; // 3 seconds
         private static final long RECONNECT_DELAY_LONG_MS = 10000; // 10 seconds
         private static final long MIN_SEGMENT_SIZE_BYTES = 1024 * 100; // 100 KB minimum
         private static final long CONNECTION_TIMEOUT_MS = 30000; // 30 seconds
         private static final int MAX_CONSECUTIVE_FAILURES = 5;
 
+        // Event-triggered mode: the ring is sized from the recorded bitrate and the pre-roll. A main
+        // stream stored untouched (dual-stream) has no known bitrate, so assume a typical camera's.
+        private static final int MAX_PRE_ROLL_SECONDS = 300;
+        private static final int PASSTHROUGH_ASSUMED_KBPS = 8000;
+
+        // Motion analysis: 160x90 luma at up to 2 fps. The main stream is only decoded at keyframes,
+        // which the encoder then writes every MOTION_KEYFRAME_INTERVAL_MS.
+        private static final long MOTION_SAMPLE_INTERVAL_MS = 500;
+        private static final long MOTION_KEYFRAME_INTERVAL_MS = 1000;
+
+        // Timeline thumbnails: one decoded keyframe every 10 seconds, sparser when a segment would not fit the sprite
+        private static final long THUMBNAIL_INTERVAL_MS = 10000;
+        private static final int THUMBNAIL_JPEG_QUALITY = 70;
+
+        // Live preview: ~1s HLS segments, last 30 kept in memory, served on the LAN
+        private static final long HLS_SEGMENT_TARGET_MS = 1000;
+        // Frame rate assumed for a forced keyframe interval when the profile keeps the camera's rate
+        private static final int ASSUMED_FPS = 25;
+        private static final int HLS_WINDOW_SEGMENTS = 30;
+        private static final int LIVE_PREVIEW_PORT = 8080;
+
+        // Auto encoding profile: step down below 95% of real time or 85% of the expected frame rate
+        private static final float ENCODE_MIN_SPEED = 0.95f;
+        private static final float ENCODE_MIN_FPS_RATIO = 0.85f;
+
+        private static final String SEGMENT_PREFIX = "recording_segment_";
+
+        public static final String MODE_CONTINUOUS = "continuous";
+        public static final String MODE_EVENT = "event";
+        public static final String MODE_TIMELAPSE = "timelapse";
+        private static final String[] MODES = {MODE_CONTINUOUS, MODE_EVENT, MODE_TIMELAPSE};
+
+        public static final String ACTION_TRIGGER_EVENT = "com.example.rtsprecorder.action.TRIGGER_EVENT";
+
+        // Set while an event recording runs, so TriggerReceiver never starts an idle service
+        private static volatile boolean acceptingTriggers = false;
+
         private static final String NOTIFICATION_CHANNEL_ID = "recording_channel";
 
         private LibVLC libVLC;
@@ -381,8 +660,43 @@ public class MainActivity extends AppCompatActivity {
         private Runnable watchdogRunnable;
         private LogCallback logCallback;
         private PowerManager.WakeLock wakeLock; // <-- WAKELOCK VARIABLE ADDED BACK
+        private String recordingMode = MODE_CONTINUOUS;
+        private boolean autoProfile = true;
+        private int profileIndex = 0;
+        private EncodeSpeedMonitor encodeMonitor;
+        // Profile of the recording in progress, for the catalog; set when the player starts
+        private String segmentProfile = "";
+        private long preRollMs = 30000;
+        private long postRollMs = 30000;
+        private TsIngestTap ingestTap;
+        private PreEventRingBuffer preEventBuffer;
+        private boolean motionDetectionEnabled = false;
+        private String subRtspUrl;
+        private TsIngestTap subStreamTap;
+        private MediaPlayer subMediaPlayer;
+        private Handler subStreamHandler;
+        private TimelapseWriter timelapseWriter;
+        private long timelapseIntervalMs = 10000;
+        private boolean thumbnailsEnabled = false;
+        private ThumbnailSpriteBuilder thumbnailBuilder;
+        private boolean livePreviewEnabled = false;
+        private LiveHttpServer liveServer;
+        // Non-null when segments are encrypted at rest
+        private SecretKey segmentKey;
+        private SegmentUploader segmentUploader;
+        private SegmentCatalog segmentCatalog;
+        private boolean motionActive = false;
+        private int motionEventsInSegment = 0;
+        private float motionPeakInSegment = 0;
 
         private long segmentStartTime = 0;
+        private long segmentDurationMs = 3 * 60 * 1000;
+        // Slot of the segment being recorded, set when it starts playing
+        private long segmentSlotStartMs = 0;
+        // Slot and part number of the last saved segment, to number reconnect splits
+        private long savedSlotStartMs = 0;
+        private int savedSlotPart = 0;
+        private FrameTimingTracker frameTiming;
         private int consecutiveFailures = 0;
         private boolean isConnecting = false;
 
@@ -406,6 +720,28 @@ public class MainActivity extends AppCompatActivity {
             this.logCallback = callback;
         }
 
+        /** Playlist URL with its access token, or null when the live preview is not running. */
+        public String getLivePreviewUrl() {
+            return liveServer != null ? liveServer.getPlaylistUrl() : null;
+        }
+
+        static int modeToIndex(String mode) {
+            for (int i = 0; i < MODES.length; i++) {
+                if (MODES[i].equals(mode)) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        static String indexToMode(int index) {
+            return (index >= 0 && index < MODES.length) ? MODES[index] : MODE_CONTINUOUS;
+        }
+
+        static boolean isAcceptingTriggers() {
+            return acceptingTriggers;
+        }
+
         private void log(String message) {
             if (logCallback != null) {
                 Handler handler = new Handler(getMainLooper());
@@ -451,6 +787,7 @@ public class MainActivity extends AppCompatActivity {
             segmentHandler = new Handler(getMainLooper());
             reconnectHandler = new Handler(getMainLooper());
             watchdogHandler = new Handler(getMainLooper());
+            subStreamHandler = new Handler(getMainLooper());
 
             log("Recording service initialized");
         }
@@ -466,6 +803,18 @@ public class MainActivity extends AppCompatActivity {
                 return START_STICKY;
             }
 
+            if (ACTION_TRIGGER_EVENT.equals(intent.getAction())) {
+                if (shouldBeRecording && isEventMode()) {
+                    triggerEvent(intent.getStringExtra("source") != null ? intent.getStringExtra("source") : "intent");
+                } else {
+                    log("Ignoring event trigger - event recording is not running");
+                    if (!shouldBeRecording) {
+                        stopSelf();
+                    }
+                }
+                return shouldBeRecording ? START_STICKY : START_NOT_STICKY;
+            }
+
             rtspUrl = intent.getStringExtra("rtspUrl");
             String outputFolderUriString = intent.getStringExtra("outputFolderUri");
 
@@ -477,8 +826,49 @@ public class MainActivity extends AppCompatActivity {
             }
 
             outputFolderUri = Uri.parse(outputFolderUriString);
+            String requestedMode = intent.getStringExtra("recordingMode");
+            recordingMode = requestedMode != null ? requestedMode : MODE_CONTINUOUS;
+            preRollMs = Math.min(MAX_PRE_ROLL_SECONDS, intent.getIntExtra("preRollSeconds", 30)) * 1000L;
+            postRollMs = intent.getIntExtra("postRollSeconds", 30) * 1000L;
+            segmentDurationMs = Math.max(1, intent.getIntExtra("segmentDurationMinutes", 3)) * 60 * 1000L;
+            String requestedProfile = intent.getStringExtra("encodingProfile");
+            profileIndex = Math.max(0, EncodingProfile.indexOf(requestedProfile));
+            autoProfile = requestedProfile == null || EncodingProfile.indexOf(requestedProfile) < 0;
+            motionDetectionEnabled = intent.getBooleanExtra("motionDetection", false);
+            timelapseIntervalMs = intent.getIntExtra("timelapseIntervalSeconds", 10) * 1000L;
+            // A timelapse already is the visual summary; sprites are for regular segments
+            thumbnailsEnabled = intent.getBooleanExtra("thumbnails", false) && !MODE_TIMELAPSE.equals(recordingMode);
+            livePreviewEnabled = intent.getBooleanExtra("livePreview", false);
+            segmentKey = null;
+            if (intent.getBooleanExtra("encryptSegments", false)) {
+                try {
+                    segmentKey = SegmentCipher.getOrCreateMasterKey();
+                } catch (Exception e) {
+                    // Never fall back to writing plaintext when encryption was asked for
+                    Toast.makeText(this, "Segment encryption key unavailable", Toast.LENGTH_LONG).show();
+                    log("ERROR: Segment encryption key unavailable: " + e.getMessage());
+                    stopSelf();
+                    return START_NOT_STICKY;
+                }
+                log("Segments will be encrypted at rest (AES-256-GCM)");
+            }
+            subRtspUrl = intent.getStringExtra("subRtspUrl");
+            if (subRtspUrl != null && subRtspUrl.isEmpty()) {
+                subRtspUrl = null;
+            }
+            segmentCatalog = new SegmentCatalog(this, outputFolderUri);
+            String uploadUrl = intent.getStringExtra("uploadUrl");
+            if (uploadUrl != null && !uploadUrl.isEmpty()) {
+                startUploader(uploadUrl, intent.getIntExtra("uploadLimitKbps", 1024));
+            }
             segmentCounter = 0;
+            savedSlotStartMs = 0;
+            savedSlotPart = 0;
+            if (isContinuousMode()) {
+                restoreSlotParts();
+            }
             shouldBeRecording = true;
+            acceptingTriggers = isEventMode();
             consecutiveFailures = 0;
 
             log("Service starting with URL: " + rtspUrl);
@@ -487,6 +877,31 @@ public class MainActivity extends AppCompatActivity {
             startForeground(1, buildNotification("Initializing..."));
             log("Foreground service started");
 
+            if (!isTranscodingVideo()) {
+                log("Encoding profile not used - video is stored as the camera sends it");
+            } else if (autoProfile) {
+                log("Encoding profile: auto, starting with " + currentProfile().describe());
+            } else {
+                log("Encoding profile: " + currentProfile().describe());
+            }
+
+            if (!startIngestTaps()) {
+                if (needsIngestTap() || isDualStream()) {
+                    stopSelf();
+                    return START_NOT_STICKY;
+                }
+                // The tap only adds frame timing here; record without it
+                frameTiming = null;
+                log("WARN: Frame timing unavailable - segment times come from the player");
+            }
+
+            if (isDualStream()) {
+                subMediaPlayer = new MediaPlayer(libVLC);
+                startSubStream();
+            } else if (subRtspUrl != null) {
+                log("Sub-stream URL set but no preview or analysis feature is enabled - not opening it");
+            }
+
             startNewSegment();
 
             return START_STICKY;
@@ -500,6 +915,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onDestroy() {
             super.onDestroy();
+            acceptingTriggers = false;
             shouldBeRecording = false;
             isRecording = false;
 
@@ -537,6 +953,19 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
 
+            if (subStreamHandler != null) {
+                subStreamHandler.removeCallbacksAndMessages(null);
+            }
+            if (subMediaPlayer != null) {
+                try {
+                    subMediaPlayer.stop();
+                    subMediaPlayer.release();
+                    subMediaPlayer = null;
+                } catch (Exception e) {
+                    log("ERROR releasing sub-stream MediaPlayer: " + e.getMessage());
+                }
+            }
+
             if (libVLC != null) {
                 try {
                     libVLC.release();
@@ -546,10 +975,19 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
 
+            stopIngestTaps();
+
+            // The stopped uploader is kept: segments saved from here on (the final one below, and event or
+            // timelapse files closed by stopIngestTaps() whose callbacks are still queued) are only journaled
+            // and go out on the next start
+            if (segmentUploader != null) {
+                segmentUploader.stop();
+            }
+
             if (tempFile != null && tempFile.exists()) {
                 if (tempFile.length() > MIN_SEGMENT_SIZE_BYTES) {
                     log("Saving final segment...");
-                    saveSegmentToFolder(tempFile, segmentCounter);
+                    saveContinuousSegment(tempFile, segmentCounter);
                 } else {
                     log("Deleted incomplete final segment");
                     if (!tempFile.delete()) {
@@ -567,6 +1005,434 @@ public class MainActivity extends AppCompatActivity {
             handler.post(action);
         }
 
+        public boolean isEventMode() {
+            return MODE_EVENT.equals(recordingMode);
+        }
+
+        private boolean isTimelapseMode() {
+            return MODE_TIMELAPSE.equals(recordingMode);
+        }
+
+        private boolean isContinuousMode() {
+            return !isEventMode() && !isTimelapseMode();
+        }
+
+        private String idleStatusText() {
+            if (isEventMode()) {
+                return "Armed, waiting for events";
+            }
+            if (isTimelapseMode()) {
+                return "Timelapse, 1 frame every " + (timelapseIntervalMs / 1000) + "s";
+            }
+            return "Recording segment " + (segmentCounter + 1);
+        }
+
+        /** Starts (or extends) an event recording; callable from any thread. */
+        public void triggerEvent(String source) {
+            if (preEventBuffer == null) {
+                log("WARN: Event trigger (" + source + ") ignored - pre-event buffer not running");
+                return;
+            }
+            log("Event trigger: " + source);
+            preEventBuffer.trigger(System.currentTimeMillis());
+        }
+
+        private boolean hasAnalysisFeatures() {
+            return motionDetectionEnabled || thumbnailsEnabled || livePreviewEnabled;
+        }
+
+        private boolean isDualStream() {
+            return subRtspUrl != null && hasAnalysisFeatures();
+        }
+
+        // The main tap carries what gets stored; analysis moves to the sub-stream when there is one.
+        // Auto profile selection also reads it, to time the encoder. Continuous mode can do without it.
+        private boolean needsIngestTap() {
+            return !isContinuousMode() || (hasAnalysisFeatures() && !isDualStream()) || isMeasuringEncoder();
+        }
+
+        private boolean isTranscodingVideo() {
+            return !isDualStream() && !isTimelapseMode();
+        }
+
+        private boolean isMeasuringEncoder() {
+            return autoProfile && isTranscodingVideo();
+        }
+
+        private EncodingProfile currentProfile() {
+            return EncodingProfile.LADDER[profileIndex];
+        }
+
+        // Main thread
+        private void onEncodeSpeedMeasured(float speed, float outputFps) {
+            if (!shouldBeRecording || encodeMonitor == null) {
+                return;
+            }
+            EncodingProfile profile = currentProfile();
+            float sourceFps = sourceFrameRate();
+            float expectedFps = profile.fps > 0 && sourceFps > 0 ? Math.min(profile.fps, sourceFps)
+                    : profile.fps > 0 ? profile.fps : sourceFps;
+            String measured = String.format(Locale.US, "%.2fx real time, %.1f fps", speed, outputFps)
+                    + (expectedFps > 0 ? String.format(Locale.US, " of %.1f", expectedFps) : "");
+            boolean behind = speed < ENCODE_MIN_SPEED || (expectedFps > 0 && outputFps < expectedFps * ENCODE_MIN_FPS_RATIO);
+            if (!behind) {
+                log("Encoding profile " + profile.name + " keeps up (" + measured + ") - keeping it");
+                encodeMonitor.disarm();
+                encodeMonitor = null;
+                return;
+            }
+            if (profileIndex == EncodingProfile.LADDER.length - 1) {
+                log("WARN: Encoder falls behind even at profile " + profile.name + " (" + measured + ") - no lower profile left");
+                encodeMonitor.disarm();
+                encodeMonitor = null;
+                return;
+            }
+            profileIndex++;
+            log("Encoder falls behind at profile " + profile.name + " (" + measured + "), stepping down to "
+                    + currentProfile().describe());
+            startNewSegment();
+        }
+
+        // 0 when LibVLC has not reported the camera's frame rate
+        private float sourceFrameRate() {
+            Media media = mediaPlayer != null ? mediaPlayer.getMedia() : null;
+            if (media == null) {
+                return 0;
+            }
+            try {
+                for (int i = 0; i < media.getTrackCount(); i++) {
+                    Media.Track track = media.getTrack(i);
+                    if (track instanceof Media.VideoTrack) {
+                        Media.VideoTrack video = (Media.VideoTrack) track;
+                        if (video.frameRateDen > 0 && video.frameRateNum > 0) {
+                            return (float) video.frameRateNum / video.frameRateDen;
+                        }
+                    }
+                }
+            } finally {
+                media.release();
+            }
+            return 0;
+        }
+
+        // In continuous mode the main tap also supplies the frame times of the segments
+        private boolean startIngestTaps() {
+            ingestTap = new TsIngestTap(new File(getCacheDir(), "ingest_main.ts"), "main", this::log,
+                    () -> runOnUiThread(this::onMainTapFailed));
+            if (isDualStream()) {
+                subStreamTap = new TsIngestTap(new File(getCacheDir(), "ingest_sub.ts"), "sub", this::log,
+                        () -> runOnUiThread(this::onSubTapFailed));
+            }
+            TsIngestTap analysisTap = isDualStream() ? subStreamTap : ingestTap;
+
+            if (isContinuousMode() || isMeasuringEncoder()) {
+                AccessUnitAssembler storedAssembler = new AccessUnitAssembler(ingestTap);
+                ingestTap.addListener(storedAssembler);
+                if (isContinuousMode()) {
+                    frameTiming = new FrameTimingTracker();
+                    storedAssembler.addListener(frameTiming);
+                }
+                if (isMeasuringEncoder()) {
+                    encodeMonitor = new EncodeSpeedMonitor((speed, outputFps) ->
+                            runOnUiThread(() -> onEncodeSpeedMeasured(speed, outputFps)));
+                    storedAssembler.addListener(encodeMonitor);
+                }
+            }
+
+            int preEventBufferBytes = 0;
+            if (isEventMode()) {
+                // Auto mode only steps down from the starting profile, so this covers every later one
+                int streamKbps = isTranscodingVideo() ? currentProfile().totalKbps() : PASSTHROUGH_ASSUMED_KBPS;
+                preEventBufferBytes = PreEventRingBuffer.capacityFor(streamKbps, preRollMs);
+                long heldSeconds = PreEventRingBuffer.secondsHeld(preEventBufferBytes, streamKbps);
+                if (heldSeconds * 1000 < preRollMs) {
+                    log("WARN: Pre-event buffer capped at " + (preEventBufferBytes / 1024 / 1024) + " MB, which holds about "
+                            + heldSeconds + "s of the " + (preRollMs / 1000) + "s pre-roll at " + streamKbps + " kbps");
+                }
+                preEventBuffer = new PreEventRingBuffer(ingestTap, getCacheDir(), preEventBufferBytes,
+                        preRollMs, postRollMs, segmentDurationMs,
+                        (file, startMs, endMs) -> runOnUiThread(() -> {
+                            log("Event segment finished (" + ((endMs - startMs) / 1000) + " seconds)");
+                            saveSegmentToFolder(file, segmentCounter++, SEGMENT_PREFIX,
+                                    SegmentTiming.unaligned(startMs, endMs), null);
+                        }),
+                        this::log);
+                ingestTap.addListener(preEventBuffer);
+            }
+            if (isTimelapseMode()) {
+                File timelapseDir = new File(getFilesDir(), "timelapse");
+                if (!timelapseDir.isDirectory() && !timelapseDir.mkdirs()) {
+                    log("ERROR: Cannot create timelapse directory");
+                    ingestTap = null;
+                    subStreamTap = null;
+                    preEventBuffer = null;
+                    return false;
+                }
+                AccessUnitAssembler mainAssembler = new AccessUnitAssembler(ingestTap);
+                ingestTap.addListener(mainAssembler);
+                timelapseWriter = new TimelapseWriter(mainAssembler, timelapseDir, timelapseIntervalMs,
+                        (file, startMs, endMs, frames) -> runOnUiThread(() -> {
+                            if (frames >= 0) {
+                                log("Timelapse file finished (" + frames + " frames)");
+                            }
+                            saveSegmentToFolder(file, segmentCounter++, "timelapse_",
+                                    SegmentTiming.unaligned(startMs, endMs), null);
+                        }),
+                        this::log);
+                mainAssembler.addListener(timelapseWriter);
+                timelapseWriter.recoverLeftovers();
+            }
+
+            if (livePreviewEnabled) {
+                HlsSegmenter segmenter = new HlsSegmenter(analysisTap, HLS_SEGMENT_TARGET_MS, HLS_WINDOW_SEGMENTS);
+                analysisTap.addListener(segmenter);
+                liveServer = new LiveHttpServer(segmenter, LIVE_PREVIEW_PORT, this::log);
+            }
+            if (motionDetectionEnabled || thumbnailsEnabled) {
+                AccessUnitAssembler analysisAssembler = new AccessUnitAssembler(analysisTap);
+                analysisTap.addListener(analysisAssembler);
+                if (motionDetectionEnabled) {
+                    MotionDetector detector = new MotionDetector(new MotionListener());
+                    analysisAssembler.addListener(new LumaSampler(analysisAssembler, MOTION_SAMPLE_INTERVAL_MS,
+                            !isDualStream(), detector, this::log));
+                }
+                if (thumbnailsEnabled) {
+                    thumbnailBuilder = new ThumbnailSpriteBuilder(analysisAssembler, THUMBNAIL_INTERVAL_MS,
+                            segmentDurationMs, this::log);
+                    analysisAssembler.addListener(thumbnailBuilder);
+                    thumbnailBuilder.start();
+                }
+            }
+
+            try {
+                if (ingestTap != null) {
+                    ingestTap.start();
+                }
+                if (subStreamTap != null) {
+                    subStreamTap.start();
+                }
+                if (preEventBuffer != null) {
+                    log("Pre-event buffer ready (" + (preEventBufferBytes / 1024 / 1024) + " MB, "
+                            + (preRollMs / 1000) + "s pre-roll, " + (postRollMs / 1000) + "s post-roll)");
+                }
+                if (timelapseWriter != null) {
+                    log("Timelapse ready (1 keyframe every " + (timelapseIntervalMs / 1000) + "s, "
+                            + TimelapseWriter.PLAYBACK_FPS + " fps playback)");
+                }
+                if (isDualStream()) {
+                    log("Dual-stream: analysis and preview use the sub-stream, main stream is stored");
+                }
+                if (motionDetectionEnabled) {
+                    log("Motion detection enabled");
+                }
+                if (thumbnailBuilder != null) {
+                    log("Thumbnails enabled (every " + (thumbnailBuilder.getIntervalMs() / 1000) + "s)");
+                }
+                if (liveServer != null) {
+                    startLiveServer();
+                }
+                return true;
+            } catch (IOException e) {
+                log("ERROR: Failed to start ingest tap: " + e.getMessage());
+                stopIngestTaps();
+                return false;
+            }
+        }
+
+        // Stopping the taps closes any event still in its post-roll
+        private void stopIngestTaps() {
+            if (liveServer != null) {
+                liveServer.stop();
+                liveServer = null;
+            }
+            if (subStreamTap != null) {
+                subStreamTap.stop();
+                subStreamTap = null;
+            }
+            if (ingestTap != null) {
+                ingestTap.stop();
+                ingestTap = null;
+                preEventBuffer = null;
+                encodeMonitor = null;
+            }
+            if (timelapseWriter != null) {
+                timelapseWriter.close();
+                timelapseWriter = null;
+            }
+            // Keep the builder around so a final segment still gets its sprite
+            if (thumbnailBuilder != null) {
+                thumbnailBuilder.stop();
+            }
+        }
+
+        // Main thread. The player blocks on a pipe nobody reads, so it is restarted right away.
+        private void onMainTapFailed() {
+            if (!shouldBeRecording || ingestTap == null) {
+                return;
+            }
+            if (isContinuousMode()) {
+                // The stored file never depends on the tap: go on without frame timing and main-stream analysis
+                log("Restarting the segment without the ingest tap");
+                ingestTap.stop();
+                ingestTap = null;
+                frameTiming = null;
+                encodeMonitor = null;
+            } else {
+                // Event and timelapse files come out of the tap, so it is rebuilt
+                log("Restarting the ingest tap");
+                stopIngestTaps();
+                if (!startIngestTaps()) {
+                    stopSelf();
+                    return;
+                }
+                if (subMediaPlayer != null) {
+                    subMediaPlayer.stop();
+                    startSubStream();
+                }
+            }
+            isConnecting = false;
+            startNewSegment();
+        }
+
+        // Main thread. Only analysis and preview read the sub-stream, the recording carries on.
+        private void onSubTapFailed() {
+            if (subMediaPlayer == null) {
+                return;
+            }
+            log("Sub-stream analysis stopped");
+            subStreamHandler.removeCallbacksAndMessages(null);
+            subMediaPlayer.stop();
+        }
+
+        private void startSubStream() {
+            if (!shouldBeRecording || subMediaPlayer == null) {
+                return;
+            }
+            try {
+                final Media media = new Media(libVLC, Uri.parse(subRtspUrl));
+                // Passthrough: the sub-stream is only read, never stored
+                media.addOption(":sout=#std{access=file,mux=ts,dst='" + subStreamTap.getFifo().getAbsolutePath() + "'}");
+                media.addOption(":sout-keep");
+                media.addOption(":no-sout-all");
+                media.addOption(":sout-video");
+
+                subMediaPlayer.setEventListener(event -> {
+                    switch (event.type) {
+                        case MediaPlayer.Event.Playing:
+                            log("✓ Sub-stream connected");
+                            break;
+
+                        case MediaPlayer.Event.EncounteredError:
+                        case MediaPlayer.Event.EndReached:
+                            log("⚠ Sub-stream lost, retrying in " + (RECONNECT_DELAY_SHORT_MS / 1000) + "s");
+                            subStreamHandler.removeCallbacksAndMessages(null);
+                            subStreamHandler.postDelayed(this::startSubStream, RECONNECT_DELAY_SHORT_MS);
+                            break;
+                    }
+                });
+
+                subMediaPlayer.setMedia(media);
+                media.release();
+                subMediaPlayer.play();
+                log("Starting sub-stream: " + subRtspUrl);
+            } catch (Exception e) {
+                log("ERROR starting sub-stream: " + e.getMessage());
+                subStreamHandler.postDelayed(this::startSubStream, RECONNECT_DELAY_LONG_MS);
+            }
+        }
+
+        // A failed server only loses the preview, recording carries on
+        private void startLiveServer() {
+            try {
+                liveServer.start();
+                log("Live preview: " + liveServer.getPlaylistUrl());
+            } catch (IOException e) {
+                log("ERROR: Failed to start live preview server on port " + LIVE_PREVIEW_PORT + ": " + e.getMessage());
+                liveServer.stop();
+                liveServer = null;
+            }
+        }
+
+        // Called on the motion decoder thread
+        private class MotionListener implements MotionDetector.Listener {
+            @Override
+            public void onMotionStart(long timeMs, float score) {
+                if (preEventBuffer != null) {
+                    preEventBuffer.trigger(timeMs);
+                }
+                runOnUiThread(() -> {
+                    motionActive = true;
+                    motionEventsInSegment++;
+                    motionPeakInSegment = Math.max(motionPeakInSegment, score);
+                    log("Motion started (score " + String.format(Locale.US, "%.2f", score) + ")");
+                    updateNotification("Motion detected");
+                });
+            }
+
+            @Override
+            public void onMotionScore(long timeMs, float score) {
+                // Keep extending the post-roll while the scene is still moving; quiet samples
+                // before motion ends must not
+                if (preEventBuffer != null && MotionDetector.isMoving(score)) {
+                    preEventBuffer.trigger(timeMs);
+                }
+                if (score > motionPeakInSegment) {
+                    runOnUiThread(() -> motionPeakInSegment = Math.max(motionPeakInSegment, score));
+                }
+            }
+
+            @Override
+            public void onMotionEnd(long timeMs, float peakScore) {
+                runOnUiThread(() -> {
+                    motionActive = false;
+                    log("Motion ended (peak " + String.format(Locale.US, "%.2f", peakScore) + ")");
+                    updateNotification(idleStatusText());
+                });
+            }
+        }
+
+        private String buildSoutChain() {
+            // With a sub-stream doing the analysis, the main video is stored as the camera sends it;
+            // only audio is converted so the MP4 muxer always gets AAC.
+            String transcode = isDualStream()
+                    ? "#transcode{acodec=mp4a,ab=128}"
+                    : "#transcode{" + currentProfile().transcodeOptions(keyintFrames()) + "}";
+            if (isEventMode()) {
+                return ":sout=" + transcode + ":" + tapOutput();
+            }
+            if (isTimelapseMode()) {
+                // Passthrough: keyframes are picked from the camera's own stream
+                return ":sout=#" + tapOutput();
+            }
+            String fileOutput = "std{access=file,mux=mp4,dst='" + tempFile.getAbsolutePath() + "'}";
+            if (ingestTap != null) {
+                return ":sout=" + transcode + ":duplicate{dst=" + fileOutput + ",dst=" + tapOutput() + "}";
+            }
+            return ":sout=" + transcode + ":" + fileOutput;
+        }
+
+        // HLS segments can only be cut at keyframes, and motion on the main stream is only sampled at
+        // keyframes; x264's default GOP would make both ~10 s apart. With a sub-stream both follow the
+        // camera's own GOP instead.
+        private int keyintFrames() {
+            if (isDualStream() || (!livePreviewEnabled && !motionDetectionEnabled)) {
+                return 0;
+            }
+            long intervalMs = Long.MAX_VALUE;
+            if (livePreviewEnabled) {
+                intervalMs = HLS_SEGMENT_TARGET_MS;
+            }
+            if (motionDetectionEnabled) {
+                intervalMs = Math.min(intervalMs, MOTION_KEYFRAME_INTERVAL_MS);
+            }
+            int fps = currentProfile().fps > 0 ? currentProfile().fps : ASSUMED_FPS;
+            return (int) Math.max(1, fps * intervalMs / 1000);
+        }
+
+        private String tapOutput() {
+            return "std{access=file,mux=ts,dst='" + ingestTap.getFifo().getAbsolutePath() + "'}";
+        }
+
         @SuppressLint("SpellCheckingInspection")
         private void startNewSegment() {
             if (!shouldBeRecording) {
@@ -596,9 +1462,7 @@ public class MainActivity extends AppCompatActivity {
 
                     if (tempFile != null && tempFile.exists()) {
                         if (tempFile.length() > MIN_SEGMENT_SIZE_BYTES) {
-                            final File fileToSave = tempFile;
-                            final int currentSegment = segmentCounter;
-                            saveSegmentToFolder(fileToSave, currentSegment);
+                            saveContinuousSegment(tempFile, segmentCounter);
                             segmentCounter++;
                         } else {
                             log("Deleting incomplete segment (size: " + tempFile.length() + " bytes)");
@@ -609,14 +1473,17 @@ public class MainActivity extends AppCompatActivity {
                     }
                 }
 
-                // Create new temp file
-                tempFile = new File(getCacheDir(), "temp_segment_" + segmentCounter + "_" + System.currentTimeMillis() + ".mp4");
-                log("Created temp file: " + tempFile.getName());
+                // Create new temp file (event and timelapse modes write through the ingest tap instead)
+                if (isContinuousMode()) {
+                    tempFile = new File(getCacheDir(), "temp_segment_" + segmentCounter + "_" + System.currentTimeMillis() + ".mp4");
+                    log("Created temp file: " + tempFile.getName());
+                }
 
                 // Create media
                 final Media media = new Media(libVLC, Uri.parse(rtspUrl));
+                segmentProfile = isTranscodingVideo() ? currentProfile().name : "passthrough";
 
-                String soutChain = ":sout=#transcode{vcodec=h264,vb=2000,acodec=mp4a,ab=128}:std{access=file,mux=mp4,dst='" + tempFile.getAbsolutePath() + "'}";
+                String soutChain = buildSoutChain();
 
                 media.addOption(soutChain);
                 media.addOption(":sout-keep");
@@ -644,6 +1511,16 @@ public class MainActivity extends AppCompatActivity {
                             cancelConnectionWatchdog();
                             cancelReconnect();
 
+                            if (encodeMonitor != null) {
+                                encodeMonitor.arm();
+                            }
+
+                            if (!isContinuousMode()) {
+                                log("✓ Successfully connected - " + idleStatusText());
+                                updateNotification(idleStatusText());
+                                break;
+                            }
+
                             log("✓ Successfully connected - Recording segment " + (segmentCounter + 1));
                             updateNotification("Recording segment " + (segmentCounter + 1));
                             Toast.makeText(this, "Recording segment " + (segmentCounter + 1), Toast.LENGTH_SHORT).show();
@@ -703,11 +1580,17 @@ public class MainActivity extends AppCompatActivity {
 
             segmentRunnable = () -> {
                 if (shouldBeRecording && mediaPlayer != null && mediaPlayer.isPlaying()) {
-                    log("Segment duration reached, starting next segment");
+                    log("Segment boundary reached, starting next segment");
                     startNewSegment();
                 }
             };
-            segmentHandler.postDelayed(segmentRunnable, SEGMENT_DURATION_MS);
+            // Boundaries sit on wall-clock multiples of the duration, so reconnects do not shift later segments.
+            // A segment always ends at the end of its slot, even if that makes it short.
+            long now = System.currentTimeMillis();
+            segmentSlotStartMs = SegmentClock.slotStart(now, segmentDurationMs);
+            long boundary = SegmentClock.slotEnd(segmentSlotStartMs, segmentDurationMs);
+            segmentHandler.postDelayed(segmentRunnable, boundary - now);
+            log("Next segment boundary at " + new SimpleDateFormat("HH:mm:ss", Locale.US).format(new Date(boundary)));
         }
 
         private void startConnectionWatchdog() {
@@ -752,9 +1635,7 @@ public class MainActivity extends AppCompatActivity {
 
                 if (fileSize > MIN_SEGMENT_SIZE_BYTES && recordedDuration > 10000) {
                     log("Saving partial segment (" + (fileSize / 1024) + " KB, " + (recordedDuration / 1000) + " seconds)");
-                    final File fileToSave = tempFile;
-                    final int currentSegment = segmentCounter;
-                    saveSegmentToFolder(fileToSave, currentSegment);
+                    saveContinuousSegment(tempFile, segmentCounter);
                     segmentCounter++;
                 } else {
                     log("Discarding incomplete segment (" + (fileSize / 1024) + " KB, " + (recordedDuration / 1000) + " seconds)");
@@ -793,10 +1674,85 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
-        private void saveSegmentToFolder(File segmentFile, int segmentNumber) {
+        private void startUploader(String uploadUrl, int limitKbps) {
+            UploadTarget target;
+            try {
+                target = UploadTarget.parse(uploadUrl);
+            } catch (IllegalArgumentException e) {
+                // A bad upload setting must not stop the recording itself
+                log("ERROR: Uploads disabled - " + e.getMessage());
+                return;
+            }
+            BandwidthLimiter limiter = new BandwidthLimiter(limitKbps * 1024L);
+            segmentUploader = new SegmentUploader(getContentResolver(), target,
+                    new UploadJournal(new File(getFilesDir(), "upload_journal")), limiter, this::log);
+            segmentUploader.start();
+            log("Uploading segments to " + target.getId()
+                    + (limitKbps > 0 ? " (limit " + limitKbps + " KB/s)" : " (no rate limit)"));
+        }
+
+        // A restart inside a slot continues its part numbering instead of asking for a name that exists
+        private void restoreSlotParts() {
+            final long slotStartMs = SegmentClock.slotStart(System.currentTimeMillis(), segmentDurationMs);
+            new Thread(() -> {
+                DocumentFile folder = DocumentFile.fromTreeUri(this, outputFolderUri);
+                if (folder == null || !folder.isDirectory()) {
+                    return;
+                }
+                int lastPart = 0;
+                for (DocumentFile file : folder.listFiles()) {
+                    lastPart = Math.max(lastPart,
+                            SegmentTiming.partOf(file.getName(), SEGMENT_PREFIX, slotStartMs));
+                }
+                final int restoredPart = lastPart;
+                if (restoredPart > 0) {
+                    runOnUiThread(() -> {
+                        if (savedSlotStartMs == 0 || (savedSlotStartMs == slotStartMs && savedSlotPart < restoredPart)) {
+                            savedSlotStartMs = slotStartMs;
+                            savedSlotPart = restoredPart;
+                        }
+                    });
+                }
+            }).start();
+        }
+
+        // Call after the player has stopped and before the next one starts, see FrameTimingTracker.cut()
+        private void saveContinuousSegment(File segmentFile, int segmentNumber) {
+            FrameTimingTracker.Span span = frameTiming != null ? frameTiming.cut() : null;
+            // A reconnect inside a slot continues it as the next part
+            savedSlotPart = segmentSlotStartMs == savedSlotStartMs ? savedSlotPart + 1 : 1;
+            savedSlotStartMs = segmentSlotStartMs;
+            saveSegmentToFolder(segmentFile, segmentNumber, SEGMENT_PREFIX,
+                    SegmentTiming.aligned(span, segmentStartTime, System.currentTimeMillis(),
+                            segmentSlotStartMs, segmentDurationMs, savedSlotPart), span);
+        }
+
+        /**
+         * @param timing start and end as known now; with a {@code span}, the save thread
+         *               waits for the stream's last frames and recomputes it from the span
+         */
+        private void saveSegmentToFolder(File segmentFile, int segmentNumber, String namePrefix,
+                                         SegmentTiming timing, FrameTimingTracker.Span span) {
             log("Saving segment " + segmentNumber + "...");
+            final long startMs = timing.firstFrameMs;
+            final long endMs = timing.lastFrameMs;
+            final int motionEvents = motionEventsInSegment;
+            final float motionPeak = motionPeakInSegment;
+            // Motion still in progress carries over into the next segment
+            motionEventsInSegment = motionActive ? 1 : 0;
+            motionPeakInSegment = 0;
+            final ThumbnailSpriteBuilder.Sheet thumbnails = thumbnailBuilder != null ? thumbnailBuilder.cut(startMs, endMs) : null;
+            final SecretKey key = segmentKey;
+            final SegmentUploader uploader = segmentUploader;
+            final String profile = segmentProfile;
             new Thread(() -> {
                 try {
+                    SegmentTiming finalTiming = timing;
+                    if (span != null) {
+                        span.awaitEnd(FRAME_TIMING_WAIT_MS);
+                        finalTiming = timing.withFrameTimes(span);
+                    }
+
                     DocumentFile folder = DocumentFile.fromTreeUri(this, outputFolderUri);
                     if (folder == null || !folder.exists() || !folder.isDirectory()) {
                         runOnUiThread(() -> {
@@ -806,8 +1762,11 @@ public class MainActivity extends AppCompatActivity {
                         return;
                     }
 
-                    String fileName = "recording_segment_" + segmentNumber + "_" + System.currentTimeMillis() + ".mp4";
-                    DocumentFile newFile = folder.createFile("video/mp4", fileName);
+                    boolean isTransportStream = segmentFile.getName().endsWith(".ts");
+                    String baseName = finalTiming.baseName(namePrefix);
+                    String fileName = baseName + (isTransportStream ? ".ts" : ".mp4") + (key != null ? SegmentCipher.FILE_SUFFIX : "");
+                    String mimeType = key != null ? "application/octet-stream" : isTransportStream ? "video/mp2t" : "video/mp4";
+                    DocumentFile newFile = folder.createFile(mimeType, fileName);
 
                     if (newFile == null) {
                         runOnUiThread(() -> {
@@ -816,33 +1775,60 @@ public class MainActivity extends AppCompatActivity {
                         });
                         return;
                     }
+                    // The provider may have renamed it to avoid a clash; record the name that is on disk
+                    String savedName = newFile.getName() != null ? newFile.getName() : fileName;
 
                     long totalBytes = 0;
+                    MessageDigest plainDigest = key != null ? sha256() : null;
                     try (FileInputStream fis = new FileInputStream(segmentFile);
-                         OutputStream fos = getContentResolver().openOutputStream(newFile.getUri())) {
+                         OutputStream fos = openSegmentOutput(newFile, key)) {
 
                         if (fos != null) {
                             byte[] buffer = new byte[16384]; // 16KB buffer
                             int bytesRead;
                             while ((bytesRead = fis.read(buffer)) != -1) {
                                 fos.write(buffer, 0, bytesRead);
+                                if (plainDigest != null) {
+                                    plainDigest.update(buffer, 0, bytesRead);
+                                }
                                 totalBytes += bytesRead;
                             }
                             fos.flush();
                         }
                     }
+                    if (plainDigest != null) {
+                        verifyEncryptedCopy(newFile, key, plainDigest.digest());
+                    }
+
+                    // The only plaintext copy of the footage; do not keep it longer than needed
+                    if (!segmentFile.delete()) {
+                        log("WARN: Failed to delete temp file: " + segmentFile.getName());
+                    }
+                    log("Temp file deleted for segment " + segmentNumber);
 
                     final long finalSize = totalBytes;
                     runOnUiThread(() -> {
                         String sizeStr = String.format(Locale.US, "%.2f MB", finalSize / 1024.0 / 1024.0);
                         Toast.makeText(this, "Segment " + segmentNumber + " saved (" + sizeStr + ")", Toast.LENGTH_SHORT).show();
-                        log("✓ Segment " + segmentNumber + " saved: " + fileName + " (" + sizeStr + ")");
+                        log("✓ Segment " + segmentNumber + " saved: " + savedName + " (" + sizeStr + ")");
                     });
 
-                    if (!segmentFile.delete()) {
-                        log("WARN: Failed to delete temp file: " + segmentFile.getName());
+                    saveTimingSidecar(folder, savedName, finalTiming, profile, key);
+
+                    if (thumbnails != null) {
+                        saveThumbnails(folder, savedName, thumbnails, key);
+                    }
+
+                    try {
+                        segmentCatalog.append(savedName, finalTiming.firstFrameMs, finalTiming.lastFrameMs, totalBytes,
+                                motionEvents, motionPeak, profile);
+                    } catch (Exception e) {
+                        log("WARN: Failed to update segment catalog: " + e.getMessage());
+                    }
+
+                    if (uploader != null) {
+                        uploader.enqueue(newFile.getUri(), savedName);
                     }
-                    log("Temp file deleted for segment " + segmentNumber);
 
                 } catch (Exception e) {
                     log("ERROR saving segment " + segmentNumber + ": " + e.getMessage());
@@ -853,6 +1839,112 @@ public class MainActivity extends AppCompatActivity {
             }).start();
         }
 
+        /**
+         * Opens the destination of a segment copy. With a key, the data is encrypted as it
+         * is copied, so encryption adds no pass over the file.
+         */
+        private OutputStream openSegmentOutput(DocumentFile file, SecretKey key) throws IOException {
+            OutputStream out = getContentResolver().openOutputStream(file.getUri());
+            if (out == null || key == null) {
+                return out;
+            }
+            try {
+                return new SegmentCipher.EncryptingOutputStream(out, key);
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        private static MessageDigest sha256() throws IOException {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Decrypts a saved segment and compares it with the digest of the plaintext that was
+         * written, so the temp recording is only deleted once the encrypted copy is readable.
+         * A copy that does not match is deleted.
+         */
+        private void verifyEncryptedCopy(DocumentFile file, SecretKey key, byte[] expectedDigest) throws IOException {
+            MessageDigest digest = sha256();
+            InputStream source = getContentResolver().openInputStream(file.getUri());
+            if (source == null) {
+                throw new IOException("Cannot reopen " + file.getName());
+            }
+            try (InputStream in = new SegmentCipher.DecryptingInputStream(source, key)) {
+                byte[] buffer = new byte[SegmentCipher.CHUNK_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+            } catch (IOException e) {
+                file.delete();
+                throw new IOException("Encrypted copy unreadable: " + e.getMessage(), e);
+            }
+            if (!MessageDigest.isEqual(digest.digest(), expectedDigest)) {
+                file.delete();
+                throw new IOException("Encrypted copy does not match the recording");
+            }
+        }
+
+        // Runs on the segment save thread; encrypted along with the segment when there is a key
+        private void saveTimingSidecar(DocumentFile folder, String segmentName, SegmentTiming timing, String profile,
+                                       SecretKey key) {
+            String sidecarName = segmentName.substring(0, segmentName.indexOf('.')) + ".json"
+                    + (key != null ? SegmentCipher.FILE_SUFFIX : "");
+            try {
+                DocumentFile sidecarFile = folder.createFile(key != null ? "application/octet-stream" : "application/json",
+                        sidecarName);
+                if (sidecarFile == null) {
+                    log("WARN: Failed to create timing sidecar for " + segmentName);
+                    return;
+                }
+                try (OutputStream out = openSegmentOutput(sidecarFile, key)) {
+                    if (out != null) {
+                        timing.writeSidecar(out, segmentName, profile);
+                    }
+                }
+            } catch (IOException | SecurityException e) {
+                log("WARN: Failed to save timing sidecar for " + segmentName + ": " + e.getMessage());
+            }
+        }
+
+        // Runs on the segment save thread
+        private void saveThumbnails(DocumentFile folder, String segmentName, ThumbnailSpriteBuilder.Sheet sheet, SecretKey key) {
+            String baseName = segmentName.substring(0, segmentName.indexOf('.'));
+            // Both are encrypted with the segment: the sprite shows the footage, the index when it was recorded
+            String suffix = key != null ? SegmentCipher.FILE_SUFFIX : "";
+            String spriteName = baseName + "_thumbs.jpg" + suffix;
+            String indexName = baseName + "_thumbs.json" + suffix;
+            try {
+                DocumentFile spriteFile = folder.createFile(key != null ? "application/octet-stream" : "image/jpeg", spriteName);
+                DocumentFile indexFile = folder.createFile(key != null ? "application/octet-stream" : "application/json", indexName);
+                if (spriteFile == null || indexFile == null) {
+                    log("WARN: Failed to create thumbnail files for " + segmentName);
+                    return;
+                }
+                try (OutputStream out = openSegmentOutput(spriteFile, key)) {
+                    if (out != null) {
+                        sheet.writeJpeg(out, THUMBNAIL_JPEG_QUALITY);
+                    }
+                }
+                try (OutputStream out = openSegmentOutput(indexFile, key)) {
+                    if (out != null) {
+                        sheet.writeIndex(out, segmentName, spriteName);
+                    }
+                }
+                log("Thumbnails saved: " + spriteName + " (" + sheet.timesMs.length + " frames)");
+            } catch (IOException e) {
+                log("WARN: Failed to save thumbnails for " + segmentName + ": " + e.getMessage());
+            } finally {
+                sheet.sprite.recycle();
+            }
+        }
+
         private Notification buildNotification(String text) {
             return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
                     .setContentTitle("RTSP Recorder")
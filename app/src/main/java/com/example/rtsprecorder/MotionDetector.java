@@ -0,0 +1,129 @@
+package com.example.rtsprecorder;
+
+/**
+ * Block-wise frame differencing on a small luma grid.
+ *
+ * Each sample is compared with the previous one in 10x10 blocks; a block counts as
+ * changed when its mean absolute difference exceeds {@link #BLOCK_DIFF_THRESHOLD}. The
+ * motion score is the fraction of changed blocks. Everything works on arrays allocated
+ * once in the constructor.
+ */
+public class MotionDetector {
+
+    public static final int GRID_WIDTH = 160;
+    public static final int GRID_HEIGHT = 90;
+    private static final int BLOCK_SIZE = 10;
+    private static final int BLOCKS_X = GRID_WIDTH / BLOCK_SIZE;
+    private static final int BLOCKS_Y = GRID_HEIGHT / BLOCK_SIZE;
+    private static final int BLOCK_COUNT = BLOCKS_X * BLOCKS_Y;
+
+    private static final int BLOCK_DIFF_THRESHOLD = 15; // mean |delta luma| per pixel
+    private static final float START_SCORE = 0.02f; // ~3 of 144 blocks
+    private static final float GLOBAL_CHANGE_SCORE = 0.8f; // lights / IR switching, not motion
+    private static final int START_SAMPLES = 2;
+    private static final long QUIET_END_MS = 5000;
+
+    public interface Listener {
+        void onMotionStart(long timeMs, float score);
+
+        /** Called for every sample while motion is active, quiet ones included. */
+        void onMotionScore(long timeMs, float score);
+
+        void onMotionEnd(long timeMs, float peakScore);
+    }
+
+    private final Listener listener;
+    private final byte[] previous = new byte[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] blockSums = new int[BLOCK_COUNT];
+    private boolean hasPrevious = false;
+
+    private boolean active = false;
+    private int aboveCount = 0;
+    private long lastMotionMs = 0;
+    private float peakScore = 0;
+
+    public MotionDetector(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Feeds one {@link #GRID_WIDTH} x {@link #GRID_HEIGHT} luma sample and returns its motion score. */
+    public float process(byte[] luma, long timeMs) {
+        if (!hasPrevious) {
+            System.arraycopy(luma, 0, previous, 0, previous.length);
+            hasPrevious = true;
+            return 0;
+        }
+
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            blockSums[i] = 0;
+        }
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            int row = y * GRID_WIDTH;
+            int blockRow = (y / BLOCK_SIZE) * BLOCKS_X;
+            for (int x = 0; x < GRID_WIDTH; x++) {
+                int diff = (luma[row + x] & 0xFF) - (previous[row + x] & 0xFF);
+                blockSums[blockRow + x / BLOCK_SIZE] += diff < 0 ? -diff : diff;
+            }
+        }
+        System.arraycopy(luma, 0, previous, 0, previous.length);
+
+        int changed = 0;
+        int blockThreshold = BLOCK_DIFF_THRESHOLD * BLOCK_SIZE * BLOCK_SIZE;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            if (blockSums[i] > blockThreshold) {
+                changed++;
+            }
+        }
+        float score = changed / (float) BLOCK_COUNT;
+        if (score >= GLOBAL_CHANGE_SCORE) {
+            return score;
+        }
+
+        update(score, timeMs);
+        return score;
+    }
+
+    /** Whether a sample's score counts as movement, as opposed to a quiet sample during motion. */
+    public static boolean isMoving(float score) {
+        return score >= START_SCORE;
+    }
+
+    public void reset() {
+        hasPrevious = false;
+        aboveCount = 0;
+    }
+
+    /** Ends an active motion period, e.g. when the stream drops. */
+    public void endMotion(long timeMs) {
+        if (active) {
+            active = false;
+            listener.onMotionEnd(timeMs, peakScore);
+        }
+        reset();
+    }
+
+    private void update(float score, long timeMs) {
+        boolean moving = isMoving(score);
+        if (!active) {
+            aboveCount = moving ? aboveCount + 1 : 0;
+            if (aboveCount >= START_SAMPLES) {
+                active = true;
+                peakScore = score;
+                lastMotionMs = timeMs;
+                listener.onMotionStart(timeMs, score);
+            }
+            return;
+        }
+
+        if (moving) {
+            lastMotionMs = timeMs;
+            peakScore = Math.max(peakScore, score);
+        }
+        listener.onMotionScore(timeMs, score);
+        if (timeMs - lastMotionMs >= QUIET_END_MS) {
+            active = false;
+            aboveCount = 0;
+            listener.onMotionEnd(timeMs, peakScore);
+        }
+    }
+}
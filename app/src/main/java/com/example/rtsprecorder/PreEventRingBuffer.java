@@ -0,0 +1,271 @@
+package com.example.rtsprecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last few seconds of the ingest stream in a preallocated off-heap ring so an
+ * event can be recorded together with what happened just before it.
+ *
+ * Packets are copied into the ring as they arrive and nothing else happens until
+ * {@link #trigger} is called. The next packet then opens an event file, writes the
+ * buffered pre-roll starting at a keyframe, and keeps appending live packets until
+ * the post-roll after the last trigger has elapsed. All file writes come straight out
+ * of the ring, so the steady state allocates nothing per packet.
+ *
+ * Everything except {@link #trigger} runs on the tap's reader thread.
+ */
+public class PreEventRingBuffer implements TsIngestTap.Listener {
+
+    private static final int PACKET = TsIngestTap.TS_PACKET_SIZE;
+    private static final int MAX_KEYFRAMES = 512;
+    private static final int WRITE_BATCH_PACKETS = 64;
+    static final int MIN_CAPACITY_BYTES = 4 * 1024 * 1024;
+    static final int MAX_CAPACITY_BYTES = 128 * 1024 * 1024;
+
+    public interface Callback {
+        void onEventSegmentReady(File file, long startMs, long endMs);
+    }
+
+    private final TsIngestTap tap;
+    private final File outputDir;
+    private final long preRollMs;
+    private final long postRollMs;
+    private final long maxSegmentMs;
+    private final Callback callback;
+    private final MainActivity.LogCallback log;
+
+    private final ByteBuffer ring;
+    private final ByteBuffer drain;
+    private final int capacityPackets;
+    private long writeSeq = 0;
+    private long validFromSeq = 0;
+
+    private final long[] keyframeSeq = new long[MAX_KEYFRAMES];
+    private final long[] keyframeTimeMs = new long[MAX_KEYFRAMES];
+    private int keyframeCount = 0;
+    private int keyframeHead = 0;
+
+    private volatile long pendingTriggerMs = 0;
+    private long postRollDeadlineMs = 0;
+
+    private FileOutputStream eventOut;
+    private FileChannel eventChannel;
+    private File eventFile;
+    private long eventStartMs;
+    private long eventLastPacketMs;
+    private long flushedSeq;
+    private boolean awaitingKeyframe = false;
+
+    public PreEventRingBuffer(TsIngestTap tap, File outputDir, int capacityBytes, long preRollMs,
+                              long postRollMs, long maxSegmentMs, Callback callback,
+                              MainActivity.LogCallback log) {
+        this.tap = tap;
+        this.outputDir = outputDir;
+        this.preRollMs = preRollMs;
+        this.postRollMs = postRollMs;
+        this.maxSegmentMs = maxSegmentMs;
+        this.callback = callback;
+        this.log = log;
+        this.capacityPackets = capacityBytes / PACKET;
+        this.ring = ByteBuffer.allocateDirect(capacityPackets * PACKET);
+        this.drain = ring.duplicate();
+    }
+
+    /**
+     * Ring size for {@code preRollMs} of a stream at {@code kbps}, with half again as much
+     * for bitrate peaks and TS overhead, clamped to
+     * [{@link #MIN_CAPACITY_BYTES}, {@link #MAX_CAPACITY_BYTES}].
+     */
+    static int capacityFor(int kbps, long preRollMs) {
+        long bytes = kbps * 125L * preRollMs / 1000 * 3 / 2;
+        return (int) Math.max(MIN_CAPACITY_BYTES, Math.min(MAX_CAPACITY_BYTES, bytes));
+    }
+
+    /** Seconds of a {@code kbps} stream that fit in {@code capacityBytes}, with the margin of {@link #capacityFor}. */
+    static long secondsHeld(int capacityBytes, int kbps) {
+        return capacityBytes * 2L / 3 / (kbps * 125L);
+    }
+
+    /** Starts an event recording, or extends the post-roll of the one in progress. Safe from any thread. */
+    public void trigger(long nowMs) {
+        pendingTriggerMs = nowMs;
+    }
+
+    public boolean isRecordingEvent() {
+        return eventOut != null || awaitingKeyframe;
+    }
+
+    @Override
+    public void onTsPacket(byte[] packet, int offset, boolean keyframe, long receivedAtMs) {
+        long seq = writeSeq;
+        ring.position((int) (seq % capacityPackets) * PACKET);
+        ring.put(packet, offset, PACKET);
+        writeSeq++;
+
+        if (writeSeq - validFromSeq > capacityPackets) {
+            validFromSeq = writeSeq - capacityPackets;
+        }
+        if (keyframe) {
+            addKeyframe(seq, receivedAtMs);
+        }
+
+        long triggerMs = pendingTriggerMs;
+        if (triggerMs != 0) {
+            pendingTriggerMs = 0;
+            postRollDeadlineMs = triggerMs + postRollMs;
+            if (eventOut == null && !awaitingKeyframe) {
+                startEvent(triggerMs, seq);
+            }
+        }
+
+        try {
+            if (awaitingKeyframe && keyframe) {
+                awaitingKeyframe = false;
+                openEventFile(receivedAtMs, seq);
+            }
+            if (eventOut == null) {
+                return;
+            }
+            eventLastPacketMs = receivedAtMs;
+            if (receivedAtMs > postRollDeadlineMs) {
+                finishEvent();
+            } else if (keyframe && receivedAtMs - eventStartMs >= maxSegmentMs) {
+                // Roll long events at a keyframe so every file starts decodable
+                writeRange(flushedSeq, seq);
+                closeEventFile();
+                openEventFile(receivedAtMs, seq);
+            } else if (writeSeq - flushedSeq >= WRITE_BATCH_PACKETS) {
+                writeRange(flushedSeq, writeSeq);
+            }
+        } catch (IOException e) {
+            log.log("ERROR: Event recording write failed: " + e.getMessage());
+            abortEvent();
+        }
+    }
+
+    @Override
+    public void onStreamEnd() {
+        if (eventOut != null) {
+            finishEvent();
+        }
+        awaitingKeyframe = false;
+        // Never splice pre-roll from before a reconnect onto the new stream
+        validFromSeq = writeSeq;
+        keyframeCount = 0;
+    }
+
+    private void addKeyframe(long seq, long timeMs) {
+        int slot = (keyframeHead + keyframeCount) % MAX_KEYFRAMES;
+        keyframeSeq[slot] = seq;
+        keyframeTimeMs[slot] = timeMs;
+        if (keyframeCount < MAX_KEYFRAMES) {
+            keyframeCount++;
+        } else {
+            keyframeHead = (keyframeHead + 1) % MAX_KEYFRAMES;
+        }
+    }
+
+    private void startEvent(long triggerMs, long currentSeq) {
+        long startSeq = -1;
+        long startMs = 0;
+        boolean overwritten = false;
+        // Oldest keyframe that is still in the ring and inside the pre-roll window
+        for (int i = 0; i < keyframeCount; i++) {
+            int slot = (keyframeHead + i) % MAX_KEYFRAMES;
+            if (keyframeTimeMs[slot] < triggerMs - preRollMs) {
+                continue;
+            }
+            if (keyframeSeq[slot] < validFromSeq) {
+                overwritten = true;
+                continue;
+            }
+            startSeq = keyframeSeq[slot];
+            startMs = keyframeTimeMs[slot];
+            break;
+        }
+        // A keyframe inside the window that the ring has already overwritten
+        if (overwritten) {
+            log.log("WARN: Pre-event buffer too small for the stream: only "
+                    + (startSeq >= 0 ? (triggerMs - startMs) / 1000 : 0) + "s of the "
+                    + (preRollMs / 1000) + "s pre-roll still buffered ("
+                    + (capacityPackets * (long) PACKET / 1024 / 1024) + " MB)");
+        }
+        try {
+            if (startSeq < 0 || !tap.hasPsi()) {
+                log.log("Event triggered, no buffered keyframe yet - starting at next keyframe");
+                awaitingKeyframe = true;
+                return;
+            }
+            log.log("Event triggered, writing " + ((triggerMs - startMs) / 1000) + "s of pre-roll");
+            openEventFile(startMs, startSeq);
+            writeRange(flushedSeq, currentSeq + 1);
+        } catch (IOException e) {
+            log.log("ERROR: Failed to start event recording: " + e.getMessage());
+            abortEvent();
+        }
+    }
+
+    private void openEventFile(long startMs, long startSeq) throws IOException {
+        eventFile = new File(outputDir, "event_" + startMs + ".ts");
+        eventOut = new FileOutputStream(eventFile);
+        eventChannel = eventOut.getChannel();
+        eventStartMs = startMs;
+        eventLastPacketMs = startMs;
+        tap.writePsi(eventOut);
+        flushedSeq = startSeq;
+    }
+
+    private void writeRange(long fromSeq, long toSeq) throws IOException {
+        while (fromSeq < toSeq) {
+            int slot = (int) (fromSeq % capacityPackets);
+            int count = (int) Math.min(toSeq - fromSeq, capacityPackets - slot);
+            drain.limit((slot + count) * PACKET);
+            drain.position(slot * PACKET);
+            while (drain.hasRemaining()) {
+                eventChannel.write(drain);
+            }
+            fromSeq += count;
+        }
+        flushedSeq = toSeq;
+    }
+
+    private void finishEvent() {
+        try {
+            writeRange(flushedSeq, writeSeq);
+            closeEventFile();
+        } catch (IOException e) {
+            log.log("ERROR: Failed to finish event recording: " + e.getMessage());
+            abortEvent();
+        }
+    }
+
+    private void closeEventFile() throws IOException {
+        File finished = eventFile;
+        long startMs = eventStartMs;
+        eventOut.close();
+        eventOut = null;
+        eventChannel = null;
+        eventFile = null;
+        callback.onEventSegmentReady(finished, startMs, eventLastPacketMs);
+    }
+
+    private void abortEvent() {
+        awaitingKeyframe = false;
+        if (eventOut != null) {
+            try {
+                eventOut.close();
+            } catch (IOException ignored) {
+            }
+            eventOut = null;
+            eventChannel = null;
+        }
+        if (eventFile != null && !eventFile.delete()) {
+            log.log("WARN: Failed to delete aborted event file " + eventFile.getName());
+        }
+        eventFile = null;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.rtsprecorder;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.documentfile.provider.DocumentFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Append-only CSV index of saved segments in the output folder, so footage with motion
+ * can be found without opening every file. Catalogs written by older versions get the
+ * newer columns added (empty for old rows) the first time they are appended to.
+ */
+public class SegmentCatalog {
+
+    public static final String FILE_NAME = "recording_catalog.csv";
+    private static final String HEADER = "file,start_ms,end_ms,size_bytes,motion_events,motion_peak,encoding_profile\n";
+
+    private final Context context;
+    private final Uri folderUri;
+    private Uri catalogUri;
+
+    public SegmentCatalog(Context context, Uri folderUri) {
+        this.context = context;
+        this.folderUri = folderUri;
+    }
+
+    public synchronized void append(String fileName, long startMs, long endMs, long sizeBytes,
+                                    int motionEvents, float motionPeak, String encodingProfile) throws IOException {
+        String line = String.format(Locale.US, "%s,%d,%d,%d,%d,%.3f,%s\n",
+                fileName, startMs, endMs, sizeBytes, motionEvents, motionPeak, encodingProfile);
+        boolean isNew = catalogUri == null && !locateCatalog();
+        if (isNew && !createCatalog()) {
+            throw new IOException("Cannot create " + FILE_NAME);
+        }
+        try (OutputStream out = context.getContentResolver().openOutputStream(catalogUri, "wa")) {
+            if (out == null) {
+                throw new IOException("Cannot open " + FILE_NAME);
+            }
+            if (isNew) {
+                out.write(HEADER.getBytes());
+            }
+            out.write(line.getBytes());
+        }
+    }
+
+    private boolean locateCatalog() {
+        DocumentFile folder = DocumentFile.fromTreeUri(context, folderUri);
+        DocumentFile existing = folder != null ? folder.findFile(FILE_NAME) : null;
+        if (existing == null) {
+            return false;
+        }
+        catalogUri = existing.getUri();
+        try {
+            upgradeColumns();
+        } catch (IOException e) {
+            // Rows still get appended; only the header stays short
+        }
+        return true;
+    }
+
+    private void upgradeColumns() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = context.getContentResolver().openInputStream(catalogUri)) {
+            if (in == null) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                content.write(buffer, 0, n);
+            }
+        }
+        String[] lines = content.toString("UTF-8").split("\n");
+        int missing = HEADER.trim().split(",").length - lines[0].trim().split(",").length;
+        if (lines[0].isEmpty() || missing <= 0) {
+            return;
+        }
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < missing; i++) {
+            padding.append(',');
+        }
+        StringBuilder upgraded = new StringBuilder(content.size() + lines.length * missing + HEADER.length());
+        upgraded.append(HEADER);
+        for (int i = 1; i < lines.length; i++) {
+            if (!lines[i].isEmpty()) {
+                upgraded.append(lines[i]).append(padding).append('\n');
+            }
+        }
+        try (OutputStream out = context.getContentResolver().openOutputStream(catalogUri, "wt")) {
+            if (out == null) {
+                throw new IOException("Cannot open " + FILE_NAME);
+            }
+            out.write(upgraded.toString().getBytes());
+        }
+    }
+
+    private boolean createCatalog() {
+        DocumentFile folder = DocumentFile.fromTreeUri(context, folderUri);
+        DocumentFile created = folder != null ? folder.createFile("text/csv", FILE_NAME) : null;
+        if (created == null) {
+            return false;
+        }
+        catalogUri = created.getUri();
+        return true;
+    }
+}
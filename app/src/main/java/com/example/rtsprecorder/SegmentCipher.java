@@ -0,0 +1,330 @@
+package com.example.rtsprecorder;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Chunked AES-256-GCM encryption for segments at rest.
+ *
+ * Every file gets a fresh data key that is wrapped by a non-exportable master key in the
+ * Android Keystore, so the Keystore is used once per file while the bulk data goes
+ * through the in-process AES implementation. Data is sealed in {@link #CHUNK_SIZE}
+ * chunks, each with its own nonce (file prefix + chunk counter). The AAD of every chunk
+ * is the whole header plus a final-chunk flag, so a modified header and reordered or
+ * truncated chunks fail authentication, and bytes after the final chunk are rejected.
+ * Version 1 files, whose AAD is only the flag, can still be read.
+ *
+ * File layout:
+ * <pre>
+ * "RSEG" | version u8 | chunkSize u32 | keyIv u8-len + bytes | wrappedKey u16-len + bytes | noncePrefix[8]
+ * ( ciphertextLength u32 | ciphertext + tag ) *
+ * </pre>
+ */
+public final class SegmentCipher {
+
+    public static final String FILE_SUFFIX = ".enc";
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String MASTER_KEY_ALIAS = "rtsprecorder_segment_master";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] MAGIC = {'R', 'S', 'E', 'G'};
+    private static final int VERSION = 2;
+    private static final int VERSION_FLAG_ONLY_AAD = 1;
+    private static final int TAG_BYTES = 16;
+    private static final int NONCE_PREFIX_BYTES = 8;
+
+    private SegmentCipher() {
+    }
+
+    /** Returns the Keystore master key, generating it on first use. */
+    public static SecretKey getOrCreateMasterKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(MASTER_KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(MASTER_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+    private static byte[] header(int version, int chunkSize, byte[] keyIv, byte[] wrappedKey, byte[] nonce) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + wrappedKey.length);
+        DataOutputStream header = new DataOutputStream(bytes);
+        try {
+            header.write(MAGIC);
+            header.writeByte(version);
+            header.writeInt(chunkSize);
+            header.writeByte(keyIv.length);
+            header.write(keyIv);
+            header.writeShort(wrappedKey.length);
+            header.write(wrappedKey);
+            header.write(nonce, 0, NONCE_PREFIX_BYTES);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen in memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void fillNonce(byte[] nonce, long counter) {
+        nonce[8] = (byte) (counter >>> 24);
+        nonce[9] = (byte) (counter >>> 16);
+        nonce[10] = (byte) (counter >>> 8);
+        nonce[11] = (byte) counter;
+    }
+
+    /**
+     * Encrypts everything written to it. The last chunk is only sealed on {@link #close},
+     * so closing the stream is what makes the file complete.
+     */
+    public static final class EncryptingOutputStream extends FilterOutputStream {
+        private final Cipher cipher;
+        private final SecretKey dataKey;
+        private final byte[] nonce = new byte[12];
+        private final byte[] aad;
+        private final byte[] plain = new byte[CHUNK_SIZE];
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_BYTES];
+        private final DataOutputStream data;
+        private int buffered = 0;
+        private long counter = 0;
+        private boolean closed = false;
+
+        public EncryptingOutputStream(OutputStream out, SecretKey masterKey) throws IOException {
+            super(out);
+            data = new DataOutputStream(out);
+            try {
+                byte[] rawKey = new byte[32];
+                SecureRandom random = new SecureRandom();
+                random.nextBytes(rawKey);
+                random.nextBytes(nonce);
+                dataKey = new SecretKeySpec(rawKey, "AES");
+
+                Cipher wrap = Cipher.getInstance(TRANSFORMATION);
+                wrap.init(Cipher.ENCRYPT_MODE, masterKey);
+                byte[] wrappedKey = wrap.doFinal(rawKey);
+                byte[] keyIv = wrap.getIV();
+
+                byte[] header = header(VERSION, CHUNK_SIZE, keyIv, wrappedKey, nonce);
+                data.write(header);
+                // Header followed by the final-chunk flag
+                aad = Arrays.copyOf(header, header.length + 1);
+
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot set up segment encryption: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == CHUNK_SIZE) {
+                sealChunk(false);
+            }
+            plain[buffered++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // Only seal a full chunk once more data arrives; the last one is sealed as final in close()
+                if (buffered == CHUNK_SIZE) {
+                    sealChunk(false);
+                }
+                int n = Math.min(len, CHUNK_SIZE - buffered);
+                System.arraycopy(b, off, plain, buffered, n);
+                buffered += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                sealChunk(true);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void sealChunk(boolean last) throws IOException {
+            try {
+                fillNonce(nonce, counter++);
+                aad[aad.length - 1] = (byte) (last ? 1 : 0);
+                cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+                cipher.updateAAD(aad);
+                int length = cipher.doFinal(plain, 0, buffered, sealed, 0);
+                data.writeInt(length);
+                data.write(sealed, 0, length);
+                buffered = 0;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment encryption failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Reads a file written by {@link EncryptingOutputStream}, failing on any tampering or truncation. */
+    public static final class DecryptingInputStream extends InputStream {
+        private final DataInputStream in;
+        private final Cipher cipher;
+        private final SecretKey dataKey;
+        private final byte[] nonce = new byte[12];
+        private final byte[] aad;
+        private final byte[] sealed;
+        private final byte[] plain;
+        private int plainLength = 0;
+        private int plainPosition = 0;
+        private long counter = 0;
+        private boolean sawLast = false;
+
+        public DecryptingInputStream(InputStream source, SecretKey masterKey) throws IOException {
+            in = new DataInputStream(source);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1] || magic[2] != MAGIC[2] || magic[3] != MAGIC[3]) {
+                throw new IOException("Not an encrypted segment");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION && version != VERSION_FLAG_ONLY_AAD) {
+                throw new IOException("Unsupported segment encryption version " + version);
+            }
+            int chunkSize = in.readInt();
+            if (chunkSize <= 0 || chunkSize > 16 * 1024 * 1024) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            byte[] keyIv = new byte[in.readUnsignedByte()];
+            in.readFully(keyIv);
+            byte[] wrappedKey = new byte[in.readUnsignedShort()];
+            in.readFully(wrappedKey);
+            in.readFully(nonce, 0, NONCE_PREFIX_BYTES);
+            if (version == VERSION_FLAG_ONLY_AAD) {
+                aad = new byte[1];
+            } else {
+                byte[] header = header(version, chunkSize, keyIv, wrappedKey, nonce);
+                aad = Arrays.copyOf(header, header.length + 1);
+            }
+            sealed = new byte[chunkSize + TAG_BYTES];
+            plain = new byte[chunkSize + TAG_BYTES];
+            try {
+                Cipher unwrap = Cipher.getInstance(TRANSFORMATION);
+                unwrap.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BYTES * 8, keyIv));
+                dataKey = new SecretKeySpec(unwrap.doFinal(wrappedKey), "AES");
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot unwrap segment key (wrong device or key deleted?)", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (plainPosition == plainLength && !nextChunk()) {
+                return -1;
+            }
+            return plain[plainPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (plainPosition == plainLength && !nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, plainLength - plainPosition);
+            System.arraycopy(plain, plainPosition, b, off, n);
+            plainPosition += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (true) {
+                if (sawLast) {
+                    return false;
+                }
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    throw new IOException("Encrypted segment is truncated");
+                }
+                if (length < TAG_BYTES || length > sealed.length) {
+                    throw new IOException("Corrupt chunk length " + length);
+                }
+                in.readFully(sealed, 0, length);
+                long index = counter++;
+                // The final flag is not stored; try "not last" first since that is every chunk but one
+                plainLength = open(length, index, false);
+                if (plainLength < 0) {
+                    plainLength = open(length, index, true);
+                    if (plainLength < 0) {
+                        throw new IOException("Encrypted segment failed authentication at chunk " + index);
+                    }
+                    sawLast = true;
+                    if (in.read() != -1) {
+                        throw new IOException("Encrypted segment has data after its final chunk");
+                    }
+                }
+                plainPosition = 0;
+                if (plainLength > 0) {
+                    return true;
+                }
+            }
+        }
+
+        private int open(int length, long index, boolean last) throws IOException {
+            try {
+                fillNonce(nonce, index);
+                aad[aad.length - 1] = (byte) (last ? 1 : 0);
+                cipher.init(Cipher.DECRYPT_MODE, dataKey, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+                cipher.updateAAD(aad);
+                return cipher.doFinal(sealed, 0, length, plain, 0);
+            } catch (javax.crypto.AEADBadTagException e) {
+                return -1;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment decryption failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
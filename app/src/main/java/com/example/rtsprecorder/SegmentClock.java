@@ -0,0 +1,33 @@
+package com.example.rtsprecorder;
+
+import java.util.TimeZone;
+
+/**
+ * Wall-clock segment slots. Slots are multiples of the segment duration counted from
+ * local midnight, so 3-minute segments start at :00, :03, :06 and the slot holding any
+ * moment can be computed instead of searched for. With a duration that does not divide
+ * the day, the last slot of each day is shorter and ends at midnight.
+ */
+final class SegmentClock {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private SegmentClock() {
+    }
+
+    /** Start of the slot that contains {@code timeMs}. */
+    static long slotStart(long timeMs, long durationMs) {
+        long offset = TimeZone.getDefault().getOffset(timeMs);
+        long local = timeMs + offset;
+        long midnight = Math.floorDiv(local, DAY_MS) * DAY_MS;
+        return midnight + (local - midnight) / durationMs * durationMs - offset;
+    }
+
+    /** End of the slot starting at {@code slotStartMs}, which is the start of the next one. */
+    static long slotEnd(long slotStartMs, long durationMs) {
+        long offset = TimeZone.getDefault().getOffset(slotStartMs);
+        long local = slotStartMs + offset;
+        long nextMidnight = Math.floorDiv(local, DAY_MS) * DAY_MS + DAY_MS;
+        return Math.min(local + durationMs, nextMidnight) - offset;
+    }
+}
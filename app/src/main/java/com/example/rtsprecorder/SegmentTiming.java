@@ -0,0 +1,148 @@
+package com.example.rtsprecorder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * When a saved segment starts and ends, for its file name and its {@code .json} sidecar.
+ *
+ * Continuous segments are named {@code <prefix><yyyyMMdd_HHmmss>} after their wall-clock
+ * slot, with {@code _part2}, {@code _part3} for the pieces of a slot split by reconnects,
+ * so the file for any moment follows from the time and the segment duration alone. Slots
+ * in the hour that repeats when daylight saving time ends also get their UTC offset
+ * ({@code _+0100}), so they do not take the names of the first pass. Event and timelapse
+ * files have no slot and are named after their first frame. The actual frame times only
+ * go into the sidecar and the catalog.
+ */
+final class SegmentTiming {
+
+    /** Frame timing was not available; times are the player's Playing and stop events. */
+    static final String SOURCE_PLAYER = "player";
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    /** Slot start, 0 when the segment is not aligned to slots. */
+    final long slotStartMs;
+    final long slotDurationMs;
+    /** 1 for the first file of a slot, higher for the ones after a reconnect. */
+    final int part;
+    final long firstFrameMs;
+    final long lastFrameMs;
+    /** Frames seen on the ingest tap, -1 when not counted. */
+    final int frames;
+    final String source;
+
+    private SegmentTiming(long slotStartMs, long slotDurationMs, int part, long firstFrameMs, long lastFrameMs,
+                          int frames, String source) {
+        this.slotStartMs = slotStartMs;
+        this.slotDurationMs = slotDurationMs;
+        this.part = part;
+        this.firstFrameMs = firstFrameMs;
+        this.lastFrameMs = lastFrameMs;
+        this.frames = frames;
+        this.source = source;
+    }
+
+    /** A continuous segment recorded in the given slot, with frame times from {@code span} when it has any. */
+    static SegmentTiming aligned(FrameTimingTracker.Span span, long playingMs, long stoppedMs,
+                                 long slotStartMs, long slotDurationMs, int part) {
+        return new SegmentTiming(slotStartMs, slotDurationMs, part, playingMs, stoppedMs, -1, SOURCE_PLAYER)
+                .withFrameTimes(span);
+    }
+
+    /** An event or timelapse file, whose writer already knows its frame arrival times. */
+    static SegmentTiming unaligned(long firstFrameMs, long lastFrameMs) {
+        return new SegmentTiming(0, 0, 1, firstFrameMs, lastFrameMs, -1, FrameTimingTracker.SOURCE_ARRIVAL);
+    }
+
+    /** The same segment with the frame times of {@code span}, or unchanged when it saw no frame. */
+    SegmentTiming withFrameTimes(FrameTimingTracker.Span span) {
+        if (span == null || span.getFrames() == 0) {
+            return this;
+        }
+        return new SegmentTiming(slotStartMs, slotDurationMs, part, span.getFirstFrameMs(), span.getLastFrameMs(),
+                span.getFrames(), span.getSource());
+    }
+
+    String baseName(String prefix) {
+        if (slotStartMs == 0) {
+            return prefix + format("yyyyMMdd_HHmmss", firstFrameMs);
+        }
+        return slotName(prefix, slotStartMs) + (part > 1 ? "_part" + part : "");
+    }
+
+    static String slotName(String prefix, long slotStartMs) {
+        String name = prefix + format("yyyyMMdd_HHmmss", slotStartMs);
+        return repeatsLocalTime(slotStartMs) ? name + "_" + format("Z", slotStartMs) : name;
+    }
+
+    // True when the local time of timeMs already occurred earlier, after clocks went back
+    private static boolean repeatsLocalTime(long timeMs) {
+        TimeZone zone = TimeZone.getDefault();
+        long shift = zone.getOffset(timeMs - 3 * HOUR_MS) - zone.getOffset(timeMs);
+        if (shift <= 0) {
+            return false;
+        }
+        long earlier = timeMs - shift;
+        return earlier + zone.getOffset(earlier) == timeMs + zone.getOffset(timeMs);
+    }
+
+    /**
+     * Part number of {@code fileName} if it is a segment of the slot starting at
+     * {@code slotStartMs}, otherwise 0.
+     */
+    static int partOf(String fileName, String prefix, long slotStartMs) {
+        String slotName = slotName(prefix, slotStartMs);
+        if (fileName == null || !fileName.startsWith(slotName)) {
+            return 0;
+        }
+        int dot = fileName.indexOf('.', slotName.length());
+        String suffix = fileName.substring(slotName.length(), dot >= 0 ? dot : fileName.length());
+        if (suffix.isEmpty()) {
+            return 1;
+        }
+        if (!suffix.startsWith("_part")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(suffix.substring("_part".length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    void writeSidecar(OutputStream out, String segmentName, String encodingProfile) throws IOException {
+        try {
+            JSONObject sidecar = new JSONObject();
+            sidecar.put("segment", segmentName);
+            if (slotStartMs != 0) {
+                sidecar.put("slotStartMs", slotStartMs);
+                sidecar.put("slotDurationMs", slotDurationMs);
+                sidecar.put("part", part);
+            }
+            sidecar.put("firstFrameMs", firstFrameMs);
+            sidecar.put("lastFrameMs", lastFrameMs);
+            sidecar.put("durationMs", lastFrameMs - firstFrameMs);
+            if (frames >= 0) {
+                sidecar.put("frames", frames);
+            }
+            sidecar.put("timingSource", source);
+            sidecar.put("timeZone", TimeZone.getDefault().getID());
+            sidecar.put("encodingProfile", encodingProfile);
+            out.write(sidecar.toString().getBytes());
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String format(String pattern, long timeMs) {
+        return new SimpleDateFormat(pattern, Locale.US).format(new Date(timeMs));
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.rtsprecorder;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Offloads saved segments to an {@link UploadTarget}. Segments are uploaded one at a
+ * time, oldest first, each as {@link #PART_SIZE} parts with up to {@link #PARALLEL_PARTS}
+ * in flight. Progress lives in an {@link UploadJournal}, so after network loss or a
+ * restart only the missing parts are sent.
+ *
+ * All threads run at background priority and share one {@link BandwidthLimiter}, so
+ * uploads cannot take the CPU or the uplink away from the live ingest.
+ */
+public class SegmentUploader {
+
+    // S3 and Nextcloud both require parts of at least 5 MiB, except the last
+    static final int PART_SIZE = 8 * 1024 * 1024;
+    static final int PARALLEL_PARTS = 3;
+    private static final long RETRY_BASE_MS = 5000;
+    private static final long RETRY_MAX_MS = 60000;
+
+    private final ContentResolver resolver;
+    private final UploadTarget target;
+    private final UploadJournal journal;
+    private final BandwidthLimiter limiter;
+    private final MainActivity.LogCallback log;
+    private final ThreadLocal<byte[]> partBuffer = ThreadLocal.withInitial(() -> new byte[PART_SIZE]);
+    private final Object wakeLock = new Object();
+    private volatile ExecutorService partPool;
+    private Thread coordinator;
+    private volatile boolean running = false;
+
+    public SegmentUploader(ContentResolver resolver, UploadTarget target, UploadJournal journal,
+                           BandwidthLimiter limiter, MainActivity.LogCallback log) {
+        this.resolver = resolver;
+        this.target = target;
+        this.journal = journal;
+        this.limiter = limiter;
+        this.log = log;
+    }
+
+    /** Starts uploading, beginning with whatever the journal still holds from earlier runs. */
+    public void start() {
+        running = true;
+        partPool = Executors.newFixedThreadPool(PARALLEL_PARTS, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "SegmentUploadPart"));
+        coordinator = new Thread(this::run, "SegmentUploader");
+        coordinator.start();
+        int pending = journal.size();
+        if (pending > 0) {
+            log.log("Resuming " + pending + " pending upload(s)");
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (coordinator != null) {
+            coordinator.interrupt();
+            coordinator = null;
+        }
+        if (partPool != null) {
+            partPool.shutdownNow();
+            partPool = null;
+        }
+    }
+
+    /**
+     * Queues a saved segment; safe to call from any thread. After {@link #stop} the segment
+     * is still journaled and goes out on the next start.
+     */
+    public void enqueue(Uri source, String objectName) {
+        try {
+            journal.add(source.toString(), objectName);
+        } catch (IOException e) {
+            log.log("ERROR: Failed to queue upload of " + objectName + ": " + e.getMessage());
+            return;
+        }
+        synchronized (wakeLock) {
+            wakeLock.notifyAll();
+        }
+    }
+
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        int failures = 0;
+        while (running) {
+            UploadJournal.Job job = journal.next();
+            if (job == null) {
+                synchronized (wakeLock) {
+                    try {
+                        wakeLock.wait(RETRY_MAX_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                upload(job);
+                journal.remove(job);
+                failures = 0;
+            } catch (UploadTarget.UploadExpiredException e) {
+                log.log("WARN: " + e.getMessage() + ", restarting it");
+                job.reset();
+                saveQuietly(job);
+            } catch (FileNotFoundException e) {
+                log.log("WARN: " + job.objectName + " is gone from the output folder, not uploading it");
+                journal.remove(job);
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                failures++;
+                long delayMs = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(failures - 1, 4));
+                log.log("WARN: Upload of " + job.objectName + " failed (" + e.getMessage()
+                        + "), retrying in " + (delayMs / 1000) + "s");
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void upload(UploadJournal.Job job) throws IOException, InterruptedException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(Uri.parse(job.sourceUri), "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException(job.sourceUri);
+        }
+        // The stream owns the descriptor and closes it exactly once
+        try (FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor)) {
+            long size = descriptor.getStatSize();
+            if (!target.getId().equals(job.targetId) || job.size != size || job.partSize != PART_SIZE) {
+                // Different store, changed file or older part layout: nothing journaled applies
+                job.reset();
+                job.targetId = target.getId();
+                job.size = size;
+                job.partSize = PART_SIZE;
+            }
+            if (job.uploadId == null) {
+                job.uploadId = target.begin(job.objectName, size);
+                journal.save(job);
+            }
+
+            int partCount = (int) Math.max(1, (size + PART_SIZE - 1) / PART_SIZE);
+            List<Integer> missing = UploadJournal.missingParts(job, partCount);
+            long startNs = System.nanoTime();
+            if (!missing.isEmpty() && missing.size() < partCount) {
+                log.log("Resuming upload of " + job.objectName + ": " + missing.size() + " of " + partCount + " parts left");
+            }
+
+            FileChannel channel = input.getChannel();
+            ExecutorService pool = partPool;
+            if (pool == null) {
+                throw new InterruptedException("Uploader stopped");
+            }
+            List<Future<?>> inFlight = new ArrayList<>(missing.size());
+            try {
+                for (int part : missing) {
+                    inFlight.add(pool.submit(() -> {
+                        uploadPart(job, channel, part, size);
+                        return null;
+                    }));
+                }
+            } catch (RejectedExecutionException e) {
+                throw new InterruptedException("Uploader stopped");
+            }
+            // Wait for every part, even after a failure, so nothing is still writing when we retry
+            IOException failure = null;
+            for (Future<?> future : inFlight) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null || e.getCause() instanceof UploadTarget.UploadExpiredException) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            List<String> tokens;
+            synchronized (job) {
+                tokens = new ArrayList<>(job.parts.values());
+            }
+            target.complete(job.objectName, job.uploadId, size, tokens);
+            double seconds = (System.nanoTime() - startNs) / 1e9;
+            log.log(String.format(Locale.US, "✓ Uploaded %s (%.2f MB, %.0f KB/s)",
+                    job.objectName, size / 1048576.0, seconds > 0 ? size / 1024.0 / seconds : 0));
+        }
+    }
+
+    // Runs on a part pool thread
+    private void uploadPart(UploadJournal.Job job, FileChannel channel, int part, long size) throws IOException {
+        byte[] buffer = partBuffer.get();
+        long offset = (long) (part - 1) * PART_SIZE;
+        int length = (int) Math.min(PART_SIZE, size - offset);
+        ByteBuffer window = ByteBuffer.wrap(buffer, 0, length);
+        // Positional reads do not move the channel position, so parts can be read concurrently
+        while (window.hasRemaining()) {
+            if (channel.read(window, offset + window.position()) == -1) {
+                throw new IOException("Segment shrank while uploading: " + job.objectName);
+            }
+        }
+        String token = target.uploadPart(job.objectName, job.uploadId, part, buffer, length, limiter);
+        synchronized (job) {
+            job.parts.put(part, token);
+            journal.save(job);
+        }
+    }
+
+    private void saveQuietly(UploadJournal.Job job) {
+        try {
+            journal.save(job);
+        } catch (IOException e) {
+            log.log("WARN: Failed to update upload journal: " + e.getMessage());
+        }
+    }
+}
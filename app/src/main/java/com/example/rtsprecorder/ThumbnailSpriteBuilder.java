@@ -0,0 +1,371 @@
+package com.example.rtsprecorder;
+
+import android.graphics.Bitmap;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Generates timeline thumbnails while recording: one keyframe every interval is
+ * decoded on its own (keyframes need no reference frames), scaled to a
+ * {@link #TILE_WIDTH} x {@link #TILE_HEIGHT} tile and kept in a preallocated ring.
+ * When a segment is saved, {@link #cut} packs the tiles that fall inside it into one
+ * sprite sheet.
+ *
+ * The ring is sized to hold a whole segment. Segments too long for {@link #MAX_TILES}
+ * at the requested interval get sparser thumbnails rather than losing their start.
+ *
+ * Decoding runs on a minimum-priority worker with a single pending slot. If the worker
+ * is still busy when the next keyframe is due, that keyframe is skipped, so thumbnail
+ * generation never holds up ingest.
+ */
+public class ThumbnailSpriteBuilder implements AccessUnitAssembler.Listener {
+
+    public static final int TILE_WIDTH = 160;
+    public static final int TILE_HEIGHT = 90;
+    public static final int COLUMNS = 10;
+    // 160x90 ARGB tiles are 56 KB each, so the ring stays under 20 MB
+    static final int MAX_TILES = 360;
+    // Room for tiles of the next segment taken before the previous one is cut
+    private static final int SPARE_TILES = 4;
+    private static final long CODEC_TIMEOUT_US = 50000;
+    private static final int MAX_OUTPUT_POLLS = 40;
+
+    /** Thumbnails of one segment: the sprite bitmap plus the capture time of every tile, in order. */
+    public static final class Sheet {
+        public final Bitmap sprite;
+        public final long[] timesMs;
+
+        Sheet(Bitmap sprite, long[] timesMs) {
+            this.sprite = sprite;
+            this.timesMs = timesMs;
+        }
+
+        public void writeJpeg(OutputStream out, int quality) {
+            sprite.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        }
+
+        public void writeIndex(OutputStream out, String segmentName, String spriteName) throws IOException {
+            try {
+                JSONObject index = new JSONObject();
+                index.put("segment", segmentName);
+                index.put("sprite", spriteName);
+                index.put("tileWidth", TILE_WIDTH);
+                index.put("tileHeight", TILE_HEIGHT);
+                index.put("columns", COLUMNS);
+                JSONArray tiles = new JSONArray();
+                for (int i = 0; i < timesMs.length; i++) {
+                    JSONObject tile = new JSONObject();
+                    tile.put("t", timesMs[i]);
+                    tile.put("x", (i % COLUMNS) * TILE_WIDTH);
+                    tile.put("y", (i / COLUMNS) * TILE_HEIGHT);
+                    tiles.put(tile);
+                }
+                index.put("thumbnails", tiles);
+                out.write(index.toString().getBytes());
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private final AccessUnitAssembler source;
+    private final long intervalMs;
+    private final int capacity;
+    private final MainActivity.LogCallback log;
+
+    // Tile ring, guarded by tileLock
+    private final Object tileLock = new Object();
+    private final int[][] tiles;
+    private final long[] tileTimesMs;
+    private int tileHead = 0;
+    private int tileCount = 0;
+
+    // Single pending keyframe handed from the tap thread to the worker, guarded by pendingLock
+    private final Object pendingLock = new Object();
+    private byte[] pending = new byte[512 * 1024];
+    private int pendingLength = 0;
+    private long pendingTimeMs = 0;
+    private boolean hasPending = false;
+    private long lastQueuedMs = 0;
+
+    private volatile boolean running = false;
+    private Thread worker;
+    private MediaCodec decoder;
+    private byte[][] decoderParameterSets;
+
+    /**
+     * @param minIntervalMs thumbnail interval for segments that fit the ring at that rate
+     * @param segmentMs     longest segment the sprites must cover
+     */
+    public ThumbnailSpriteBuilder(AccessUnitAssembler source, long minIntervalMs, long segmentMs,
+                                  MainActivity.LogCallback log) {
+        this.source = source;
+        this.intervalMs = intervalFor(segmentMs, minIntervalMs);
+        this.capacity = (int) Math.min(MAX_TILES, segmentMs / intervalMs + 1 + SPARE_TILES);
+        this.tiles = new int[capacity][TILE_WIDTH * TILE_HEIGHT];
+        this.tileTimesMs = new long[capacity];
+        this.log = log;
+    }
+
+    /** Smallest interval, at least {@code minIntervalMs}, at which a segment of {@code segmentMs} fits the ring. */
+    static long intervalFor(long segmentMs, long minIntervalMs) {
+        int usable = MAX_TILES - 1 - SPARE_TILES;
+        return Math.max(minIntervalMs, (segmentMs + usable - 1) / usable);
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public void start() {
+        running = true;
+        worker = new Thread(this::workLoop, "ThumbnailSprite");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (pendingLock) {
+            pendingLock.notifyAll();
+        }
+        if (worker != null) {
+            try {
+                worker.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+    }
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        if (!keyframe || receivedAtMs - lastQueuedMs < intervalMs) {
+            return;
+        }
+        synchronized (pendingLock) {
+            if (hasPending) {
+                return; // worker still busy with the previous thumbnail
+            }
+            if (pending.length < length) {
+                pending = new byte[length * 2];
+            }
+            System.arraycopy(data, 0, pending, 0, length);
+            pendingLength = length;
+            pendingTimeMs = receivedAtMs;
+            hasPending = true;
+            pendingLock.notifyAll();
+        }
+        lastQueuedMs = receivedAtMs;
+    }
+
+    @Override
+    public void onStreamEnd() {
+        lastQueuedMs = 0;
+    }
+
+    /**
+     * Packs the tiles captured between {@code startMs} and {@code endMs} into a sprite
+     * sheet and drops every tile older than {@code endMs}. Returns null if there are none.
+     */
+    public Sheet cut(long startMs, long endMs) {
+        synchronized (tileLock) {
+            int selected = 0;
+            int first = -1;
+            int consumed = 0;
+            for (int i = 0; i < tileCount; i++) {
+                long time = tileTimesMs[(tileHead + i) % capacity];
+                if (time > endMs) {
+                    break;
+                }
+                consumed++;
+                if (time >= startMs) {
+                    if (first < 0) {
+                        first = i;
+                    }
+                    selected++;
+                }
+            }
+            Sheet sheet = null;
+            if (selected > 0) {
+                int rows = (selected + COLUMNS - 1) / COLUMNS;
+                int columns = Math.min(selected, COLUMNS);
+                Bitmap sprite = Bitmap.createBitmap(columns * TILE_WIDTH, rows * TILE_HEIGHT, Bitmap.Config.ARGB_8888);
+                long[] times = new long[selected];
+                for (int n = 0; n < selected; n++) {
+                    int slot = (tileHead + first + n) % capacity;
+                    sprite.setPixels(tiles[slot], 0, TILE_WIDTH,
+                            (n % COLUMNS) * TILE_WIDTH, (n / COLUMNS) * TILE_HEIGHT, TILE_WIDTH, TILE_HEIGHT);
+                    times[n] = tileTimesMs[slot];
+                }
+                sheet = new Sheet(sprite, times);
+            }
+            tileHead = (tileHead + consumed) % capacity;
+            tileCount -= consumed;
+            return sheet;
+        }
+    }
+
+    private void workLoop() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (running) {
+            synchronized (pendingLock) {
+                while (running && !hasPending) {
+                    try {
+                        pendingLock.wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+            }
+            if (!running) {
+                break;
+            }
+            try {
+                decodeThumbnail(info);
+            } catch (Exception e) {
+                log.log("WARN: Thumbnail decode failed: " + e.getMessage());
+                releaseDecoder();
+            }
+            synchronized (pendingLock) {
+                hasPending = false;
+            }
+        }
+        releaseDecoder();
+    }
+
+    // Worker thread only; pending is not touched by the tap thread while hasPending is set
+    private void decodeThumbnail(MediaCodec.BufferInfo info) throws IOException {
+        int streamType = source.getStreamType();
+        byte[][] parameterSets = AccessUnitAssembler.extractParameterSets(pending, pendingLength, streamType);
+        if (parameterSets == null) {
+            return;
+        }
+        if (decoder == null || !Arrays.deepEquals(parameterSets, decoderParameterSets)) {
+            releaseDecoder();
+            createDecoder(streamType, parameterSets);
+        }
+
+        int input = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+        if (input < 0) {
+            return;
+        }
+        ByteBuffer buffer = decoder.getInputBuffer(input);
+        if (buffer == null || buffer.capacity() < pendingLength) {
+            decoder.queueInputBuffer(input, 0, 0, 0, 0);
+            return;
+        }
+        buffer.clear();
+        buffer.put(pending, 0, pendingLength);
+        decoder.queueInputBuffer(input, 0, pendingLength, 0, 0);
+        // End of stream makes the decoder release the frame without waiting for more input
+        int eos = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+        if (eos >= 0) {
+            decoder.queueInputBuffer(eos, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        }
+
+        boolean captured = false;
+        for (int poll = 0; poll < MAX_OUTPUT_POLLS; poll++) {
+            int output = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+            if (output < 0) {
+                continue;
+            }
+            if (!captured && info.size > 0) {
+                Image image = decoder.getOutputImage(output);
+                if (image != null) {
+                    storeTile(image, pendingTimeMs);
+                    image.close();
+                    captured = true;
+                }
+            }
+            decoder.releaseOutputBuffer(output, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                break;
+            }
+        }
+        decoder.flush();
+    }
+
+    private void createDecoder(int streamType, byte[][] parameterSets) throws IOException {
+        String mime = streamType == TsIngestTap.STREAM_TYPE_HEVC
+                ? MediaFormat.MIMETYPE_VIDEO_HEVC
+                : MediaFormat.MIMETYPE_VIDEO_AVC;
+        MediaFormat format = MediaFormat.createVideoFormat(mime, 1920, 1080);
+        for (int i = 0; i < parameterSets.length; i++) {
+            format.setByteBuffer("csd-" + i, ByteBuffer.wrap(parameterSets[i]));
+        }
+        format.setInteger(MediaFormat.KEY_PRIORITY, 1);
+        decoder = MediaCodec.createDecoderByType(mime);
+        decoder.configure(format, null, null, 0);
+        decoder.start();
+        decoderParameterSets = parameterSets;
+    }
+
+    private void releaseDecoder() {
+        if (decoder != null) {
+            try {
+                decoder.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            decoder.release();
+            decoder = null;
+        }
+        decoderParameterSets = null;
+    }
+
+    private void storeTile(Image image, long timeMs) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer yBuffer = planes[0].getBuffer();
+        ByteBuffer uBuffer = planes[1].getBuffer();
+        ByteBuffer vBuffer = planes[2].getBuffer();
+        int yRow = planes[0].getRowStride();
+        int yPixel = planes[0].getPixelStride();
+        int uRow = planes[1].getRowStride();
+        int uPixel = planes[1].getPixelStride();
+        int vRow = planes[2].getRowStride();
+        int vPixel = planes[2].getPixelStride();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        synchronized (tileLock) {
+            int slot;
+            if (tileCount < capacity) {
+                slot = (tileHead + tileCount) % capacity;
+                tileCount++;
+            } else {
+                slot = tileHead;
+                tileHead = (tileHead + 1) % capacity;
+            }
+            int[] tile = tiles[slot];
+            for (int ty = 0; ty < TILE_HEIGHT; ty++) {
+                int sy = ty * height / TILE_HEIGHT;
+                for (int tx = 0; tx < TILE_WIDTH; tx++) {
+                    int sx = tx * width / TILE_WIDTH;
+                    int c = (yBuffer.get(sy * yRow + sx * yPixel) & 0xFF) - 16;
+                    int d = (uBuffer.get((sy >> 1) * uRow + (sx >> 1) * uPixel) & 0xFF) - 128;
+                    int e = (vBuffer.get((sy >> 1) * vRow + (sx >> 1) * vPixel) & 0xFF) - 128;
+                    int r = clamp((298 * c + 409 * e + 128) >> 8);
+                    int g = clamp((298 * c - 100 * d - 208 * e + 128) >> 8);
+                    int b = clamp((298 * c + 516 * d + 128) >> 8);
+                    tile[ty * TILE_WIDTH + tx] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                }
+            }
+            tileTimesMs[slot] = timeMs;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.rtsprecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Builds a timelapse straight from the encoded stream: the first keyframe after every
+ * capture interval is muxed, untouched, into an MP4 whose timestamps are rewritten to a
+ * fixed playback rate. Nothing is decoded or re-encoded.
+ *
+ * A new file is started every local hour, when the camera's parameter sets change (e.g.
+ * after a resolution switch), and on {@link #close}. An MP4 is only playable once
+ * finalized, so the hourly roll bounds what a killed process loses; {@link #recoverLeftovers}
+ * hands on finished files that were never copied and deletes unfinished ones.
+ */
+public class TimelapseWriter implements AccessUnitAssembler.Listener {
+
+    public static final int PLAYBACK_FPS = 10;
+    private static final long FRAME_DURATION_US = 1000000L / PLAYBACK_FPS;
+
+    public interface Callback {
+        /** {@code frames} is -1 for files recovered from a previous run. */
+        void onTimelapseFileReady(File file, long startMs, long endMs, int frames);
+    }
+
+    private final AccessUnitAssembler source;
+    private final File outputDir;
+    private final long intervalMs;
+    private final Callback callback;
+    private final MainActivity.LogCallback log;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final SimpleDateFormat hourFormat = new SimpleDateFormat("yyyyMMdd_HH", Locale.US);
+
+    private ByteBuffer sampleBuffer = ByteBuffer.allocateDirect(512 * 1024);
+    private MediaMuxer muxer;
+    private int track = -1;
+    private File currentFile;
+    private String currentHour;
+    private byte[][] currentParameterSets;
+    private long fileStartMs;
+    private long lastFrameMs;
+    private long lastCaptureMs = 0;
+    private int frames = 0;
+
+    public TimelapseWriter(AccessUnitAssembler source, File outputDir, long intervalMs,
+                           Callback callback, MainActivity.LogCallback log) {
+        this.source = source;
+        this.outputDir = outputDir;
+        this.intervalMs = intervalMs;
+        this.callback = callback;
+        this.log = log;
+    }
+
+    @Override
+    public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+        if (!keyframe || receivedAtMs - lastCaptureMs < intervalMs) {
+            return;
+        }
+        if (source.getStreamType() != TsIngestTap.STREAM_TYPE_H264) {
+            if (lastCaptureMs == 0) {
+                log.log("ERROR: Timelapse needs an H.264 stream, camera sends stream type " + source.getStreamType());
+            }
+            lastCaptureMs = receivedAtMs;
+            return;
+        }
+        byte[][] parameterSets = AccessUnitAssembler.extractParameterSets(data, length, TsIngestTap.STREAM_TYPE_H264);
+        if (parameterSets == null) {
+            return; // keyframe without in-band SPS/PPS, wait for the next one
+        }
+        lastCaptureMs = receivedAtMs;
+
+        try {
+            String hour = hourFormat.format(new Date(receivedAtMs));
+            if (muxer != null && (!hour.equals(currentHour) || !sameParameterSets(parameterSets))) {
+                finishFile();
+            }
+            if (muxer == null && !startFile(hour, parameterSets, receivedAtMs)) {
+                return;
+            }
+            writeFrame(data, length, receivedAtMs);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            log.log("ERROR: Timelapse write failed: " + e.getMessage());
+            abortFile();
+        }
+    }
+
+    @Override
+    public void onStreamEnd() {
+        // Keep the file open across reconnects; the timelapse is continuous by design.
+    }
+
+    /** Finalizes the current file. Must be called after the ingest tap has stopped. */
+    public void close() {
+        if (muxer != null) {
+            finishFile();
+        }
+    }
+
+    /**
+     * Deals with files a killed process left in the output directory. Finished files are
+     * passed to the callback like new ones; files without a {@code moov} box cannot be
+     * played and are deleted. Call before the ingest tap starts.
+     */
+    public void recoverLeftovers() {
+        File[] leftovers = outputDir.listFiles((dir, name) -> name.startsWith("timelapse_") && name.endsWith(".mp4"));
+        if (leftovers == null) {
+            return;
+        }
+        for (File file : leftovers) {
+            if (isFinishedMp4(file)) {
+                log.log("Recovered finished timelapse " + file.getName());
+                callback.onTimelapseFileReady(file, startTimeFromName(file), file.lastModified(), -1);
+            } else {
+                log.log("WARN: Deleting unfinished timelapse " + file.getName() + " left by a previous run");
+                if (!file.delete()) {
+                    log.log("WARN: Failed to delete unfinished timelapse " + file.getName());
+                }
+            }
+        }
+    }
+
+    // Walks the top-level boxes; MediaMuxer only writes moov when it is stopped
+    private static boolean isFinishedMp4(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            long position = 0;
+            while (position + 8 <= length) {
+                in.seek(position);
+                long size = in.readInt() & 0xFFFFFFFFL;
+                int type = in.readInt();
+                if (size == 1) {
+                    size = in.readLong();
+                } else if (size == 0) {
+                    size = length - position;
+                }
+                if (type == 0x6D6F6F76) { // "moov"
+                    return true;
+                }
+                if (size < 8) {
+                    return false;
+                }
+                position += size;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return false;
+    }
+
+    // Names are timelapse_<yyyyMMdd_HH>_<start ms>.mp4
+    private static long startTimeFromName(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(name.lastIndexOf('_') + 1, name.length() - ".mp4".length()));
+        } catch (NumberFormatException e) {
+            return file.lastModified();
+        }
+    }
+
+    private boolean startFile(String hour, byte[][] parameterSets, long nowMs) {
+        H264Sps sps = H264Sps.parse(parameterSets[0]);
+        if (sps == null) {
+            log.log("ERROR: Timelapse could not parse the stream's SPS");
+            return false;
+        }
+        currentFile = new File(outputDir, "timelapse_" + hour + "_" + nowMs + ".mp4");
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, sps.width, sps.height);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(parameterSets[0]));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(parameterSets[1]));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, PLAYBACK_FPS);
+        try {
+            muxer = new MediaMuxer(currentFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            track = muxer.addTrack(format);
+            muxer.start();
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            log.log("ERROR: Failed to start timelapse file: " + e.getMessage());
+            abortFile();
+            return false;
+        }
+        currentHour = hour;
+        currentParameterSets = parameterSets;
+        fileStartMs = nowMs;
+        frames = 0;
+        log.log("Timelapse file started: " + currentFile.getName() + " (" + sps.width + "x" + sps.height + ")");
+        return true;
+    }
+
+    private void writeFrame(byte[] data, int length, long nowMs) {
+        if (sampleBuffer.capacity() < length) {
+            sampleBuffer = ByteBuffer.allocateDirect(length * 2);
+        }
+        sampleBuffer.clear();
+        sampleBuffer.put(data, 0, length);
+        sampleBuffer.flip();
+        info.set(0, length, frames * FRAME_DURATION_US, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.writeSampleData(track, sampleBuffer, info);
+        frames++;
+        lastFrameMs = nowMs;
+    }
+
+    private void finishFile() {
+        MediaMuxer finishing = muxer;
+        File file = currentFile;
+        int frameCount = frames;
+        muxer = null;
+        currentFile = null;
+        if (frameCount == 0) {
+            // MediaMuxer refuses to stop a track without samples
+            finishing.release();
+            if (!file.delete()) {
+                log.log("WARN: Failed to delete empty timelapse " + file.getName());
+            }
+            return;
+        }
+        try {
+            finishing.stop();
+        } catch (IllegalStateException e) {
+            log.log("ERROR: Failed to finalize timelapse " + file.getName() + ": " + e.getMessage());
+            finishing.release();
+            if (!file.delete()) {
+                log.log("WARN: Failed to delete broken timelapse " + file.getName());
+            }
+            return;
+        }
+        finishing.release();
+        callback.onTimelapseFileReady(file, fileStartMs, lastFrameMs, frameCount);
+    }
+
+    private void abortFile() {
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (IllegalStateException ignored) {
+            }
+            muxer = null;
+        }
+        if (currentFile != null && !currentFile.delete()) {
+            log.log("WARN: Failed to delete broken timelapse " + currentFile.getName());
+        }
+        currentFile = null;
+    }
+
+    private boolean sameParameterSets(byte[][] parameterSets) {
+        return Arrays.equals(parameterSets[0], currentParameterSets[0])
+                && Arrays.equals(parameterSets[1], currentParameterSets[1]);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.rtsprecorder;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Lets companion apps (automation tools, door sensors, ...) fire an event recording. The
+ * receiver requires the signature permission
+ * {@code com.example.rtsprecorder.permission.TRIGGER_EVENT}, so only apps signed with the
+ * same key can send {@code com.example.rtsprecorder.action.TRIGGER_EVENT}.
+ */
+public class TriggerReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "TriggerReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Starting the service from the background would throw on Android 8+, and an idle
+        // service has nothing to trigger anyway
+        if (!MainActivity.RecordingService.isAcceptingTriggers()) {
+            Log.i(TAG, "Ignoring event trigger - event recording is not running");
+            return;
+        }
+        Intent serviceIntent = new Intent(context, MainActivity.RecordingService.class);
+        serviceIntent.setAction(MainActivity.RecordingService.ACTION_TRIGGER_EVENT);
+        String source = intent.getStringExtra("source");
+        serviceIntent.putExtra("source", source != null ? source : "broadcast");
+        try {
+            // The service runs in the foreground, so the app counts as foreground here
+            context.startService(serviceIntent);
+        } catch (IllegalStateException e) {
+            // The recording stopped between the check and the start
+            Log.w(TAG, "Event trigger dropped: " + e.getMessage());
+        }
+    }
+}
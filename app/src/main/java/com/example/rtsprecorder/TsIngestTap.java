@@ -0,0 +1,328 @@
+package com.example.rtsprecorder;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads the MPEG-TS stream that LibVLC writes into a named pipe and hands every
+ * 188-byte packet to the registered listeners, flagging video keyframes.
+ *
+ * The pipe is drained on a single dedicated thread with one reusable read buffer,
+ * so listeners are called without any per-packet allocation. Listeners must be
+ * quick: a slow listener back-pressures LibVLC through the pipe.
+ *
+ * A listener that throws is logged and detached, so one broken consumer never stops
+ * the pipe from being drained. If the reader thread dies anyway, {@code onReaderFailed}
+ * runs on that thread; LibVLC's writes to the pipe then fail or block, so the owner
+ * must restart the player without this tap.
+ */
+public class TsIngestTap {
+
+    public static final int TS_PACKET_SIZE = 188;
+    private static final int READ_BUFFER_PACKETS = 64;
+    private static final int SYNC_BYTE = 0x47;
+
+    public static final int STREAM_TYPE_H264 = 0x1B;
+    public static final int STREAM_TYPE_HEVC = 0x24;
+
+    public interface Listener {
+        void onTsPacket(byte[] packet, int offset, boolean keyframe, long receivedAtMs);
+
+        /** Called when the writer closes the pipe (stream stopped or reconnecting). */
+        void onStreamEnd();
+    }
+
+    private final File fifo;
+    private final String name;
+    private final MainActivity.LogCallback log;
+    private final Runnable onReaderFailed;
+    private volatile Listener[] listeners = new Listener[0];
+    private volatile boolean running = false;
+    private Thread readerThread;
+
+    // PSI state, only touched on the reader thread
+    private int pmtPid = -1;
+    private volatile int videoPid = -1;
+    private volatile int videoStreamType = -1;
+    private final byte[] patPacket = new byte[TS_PACKET_SIZE];
+    private final byte[] pmtPacket = new byte[TS_PACKET_SIZE];
+    private volatile boolean hasPsi = false;
+
+    public TsIngestTap(File fifo, String name, MainActivity.LogCallback log, Runnable onReaderFailed) {
+        this.fifo = fifo;
+        this.name = name;
+        this.log = log;
+        this.onReaderFailed = onReaderFailed;
+    }
+
+    public File getFifo() {
+        return fifo;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] next = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, next, 0, listeners.length);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    private synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] next = new Listener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next;
+                return;
+            }
+        }
+    }
+
+    private void detach(Listener listener, RuntimeException e) {
+        removeListener(listener);
+        log.log("ERROR: Ingest tap " + name + " dropped " + listener.getClass().getSimpleName() + ": " + e);
+    }
+
+    public int getVideoPid() {
+        return videoPid;
+    }
+
+    public int getVideoStreamType() {
+        return videoStreamType;
+    }
+
+    /** True once a PAT and PMT have been seen; {@link #writePsi} is only meaningful after that. */
+    public boolean hasPsi() {
+        return hasPsi;
+    }
+
+    /** Writes the latest PAT and PMT packets so a stream cut from the tap is playable on its own. */
+    public void writePsi(OutputStream out) throws IOException {
+        out.write(patPacket, 0, TS_PACKET_SIZE);
+        out.write(pmtPacket, 0, TS_PACKET_SIZE);
+    }
+
+    public void start() throws IOException {
+        createFifo();
+        running = true;
+        readerThread = new Thread(this::readLoop, "TsIngestTap-" + name);
+        readerThread.setPriority(Thread.NORM_PRIORITY + 1);
+        readerThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        unblockReader();
+        if (readerThread != null) {
+            try {
+                readerThread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            readerThread = null;
+        }
+        if (!fifo.delete()) {
+            log.log("WARN: Failed to delete ingest pipe " + fifo.getName());
+        }
+    }
+
+    private void createFifo() throws IOException {
+        if (fifo.exists() && !fifo.delete()) {
+            throw new IOException("Cannot replace stale pipe " + fifo.getName());
+        }
+        try {
+            Os.mkfifo(fifo.getAbsolutePath(), OsConstants.S_IRUSR | OsConstants.S_IWUSR);
+        } catch (ErrnoException e) {
+            throw new IOException("mkfifo failed: " + e.getMessage(), e);
+        }
+    }
+
+    // Opening the write end without blocking wakes a reader stuck in open() or read().
+    private void unblockReader() {
+        try {
+            FileDescriptor fd = Os.open(fifo.getAbsolutePath(), OsConstants.O_WRONLY | OsConstants.O_NONBLOCK, 0);
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            // ENXIO: nobody is reading, nothing to wake up
+        }
+    }
+
+    private void readLoop() {
+        try {
+            drainPipe();
+        } catch (RuntimeException | Error e) {
+            if (running) {
+                running = false;
+                log.log("ERROR: Ingest tap " + name + " reader died: " + e);
+                onReaderFailed.run();
+            }
+        }
+    }
+
+    private void drainPipe() {
+        byte[] buffer = new byte[TS_PACKET_SIZE * READ_BUFFER_PACKETS];
+        while (running) {
+            // open() blocks until LibVLC opens the pipe for writing
+            try (InputStream in = new FileInputStream(fifo)) {
+                resetPsi();
+                int filled = 0;
+                int bytesRead;
+                while (running && (bytesRead = in.read(buffer, filled, buffer.length - filled)) != -1) {
+                    filled += bytesRead;
+                    long now = System.currentTimeMillis();
+                    int consumed = processPackets(buffer, filled, now);
+                    if (consumed < filled) {
+                        System.arraycopy(buffer, consumed, buffer, 0, filled - consumed);
+                    }
+                    filled -= consumed;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.log("ERROR: Ingest tap " + name + " read failed: " + e.getMessage());
+                }
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.onStreamEnd();
+                } catch (RuntimeException e) {
+                    detach(listener, e);
+                }
+            }
+        }
+    }
+
+    // Returns how many bytes were consumed; a trailing partial packet is left for the next read
+    int processPackets(byte[] buffer, int length, long now) {
+        int offset = 0;
+        while (length - offset >= TS_PACKET_SIZE) {
+            if ((buffer[offset] & 0xFF) != SYNC_BYTE) {
+                offset++;
+                continue;
+            }
+            boolean keyframe = inspectPacket(buffer, offset);
+            for (Listener listener : listeners) {
+                try {
+                    listener.onTsPacket(buffer, offset, keyframe, now);
+                } catch (RuntimeException e) {
+                    detach(listener, e);
+                }
+            }
+            offset += TS_PACKET_SIZE;
+        }
+        return offset;
+    }
+
+    private void resetPsi() {
+        pmtPid = -1;
+        videoPid = -1;
+        videoStreamType = -1;
+        hasPsi = false;
+    }
+
+    /** Updates PSI state from the packet and returns whether it starts a video keyframe. */
+    private boolean inspectPacket(byte[] p, int off) {
+        boolean payloadStart = (p[off + 1] & 0x40) != 0;
+        int pid = ((p[off + 1] & 0x1F) << 8) | (p[off + 2] & 0xFF);
+        int adaptationControl = (p[off + 3] >> 4) & 0x03;
+        boolean randomAccess = false;
+        int payload = off + 4;
+        if ((adaptationControl & 0x02) != 0) {
+            int adaptationLength = p[off + 4] & 0xFF;
+            randomAccess = adaptationLength > 0 && (p[off + 5] & 0x40) != 0;
+            payload += 1 + adaptationLength;
+        }
+        int end = off + TS_PACKET_SIZE;
+        if ((adaptationControl & 0x01) == 0 || payload >= end) {
+            return false;
+        }
+
+        if (pid == 0 && payloadStart) {
+            parsePat(p, payload, end);
+            System.arraycopy(p, off, patPacket, 0, TS_PACKET_SIZE);
+            return false;
+        }
+        if (pid == pmtPid && payloadStart) {
+            parsePmt(p, payload, end);
+            System.arraycopy(p, off, pmtPacket, 0, TS_PACKET_SIZE);
+            hasPsi = videoPid != -1;
+            return false;
+        }
+        if (pid != videoPid || !payloadStart) {
+            return false;
+        }
+        return randomAccess || startsWithKeyframe(p, payload, end, videoStreamType);
+    }
+
+    private void parsePat(byte[] p, int payload, int end) {
+        int table = payload + 1 + (p[payload] & 0xFF);
+        if (table + 8 > end || p[table] != 0x00) {
+            return;
+        }
+        int sectionLength = ((p[table + 1] & 0x0F) << 8) | (p[table + 2] & 0xFF);
+        int programsEnd = Math.min(table + 3 + sectionLength - 4, end);
+        for (int i = table + 8; i + 4 <= programsEnd; i += 4) {
+            int programNumber = ((p[i] & 0xFF) << 8) | (p[i + 1] & 0xFF);
+            if (programNumber != 0) {
+                pmtPid = ((p[i + 2] & 0x1F) << 8) | (p[i + 3] & 0xFF);
+                return;
+            }
+        }
+    }
+
+    private void parsePmt(byte[] p, int payload, int end) {
+        int table = payload + 1 + (p[payload] & 0xFF);
+        if (table + 12 > end || p[table] != 0x02) {
+            return;
+        }
+        int sectionLength = ((p[table + 1] & 0x0F) << 8) | (p[table + 2] & 0xFF);
+        int programInfoLength = ((p[table + 10] & 0x0F) << 8) | (p[table + 11] & 0xFF);
+        int streamsEnd = Math.min(table + 3 + sectionLength - 4, end);
+        for (int i = table + 12 + programInfoLength; i + 5 <= streamsEnd; ) {
+            int streamType = p[i] & 0xFF;
+            int elementaryPid = ((p[i + 1] & 0x1F) << 8) | (p[i + 2] & 0xFF);
+            int esInfoLength = ((p[i + 3] & 0x0F) << 8) | (p[i + 4] & 0xFF);
+            if (streamType == STREAM_TYPE_H264 || streamType == STREAM_TYPE_HEVC) {
+                videoPid = elementaryPid;
+                videoStreamType = streamType;
+                return;
+            }
+            i += 5 + esInfoLength;
+        }
+    }
+
+    // Not every muxer sets random_access_indicator, so also look for SPS/IDR NAL units
+    // in the first packet of the PES.
+    static boolean startsWithKeyframe(byte[] p, int payload, int end, int streamType) {
+        if (payload + 9 > end || p[payload] != 0 || p[payload + 1] != 0 || p[payload + 2] != 1) {
+            return false;
+        }
+        int es = payload + 9 + (p[payload + 8] & 0xFF);
+        for (int i = es; i + 3 < end; i++) {
+            if (p[i] == 0 && p[i + 1] == 0 && p[i + 2] == 1) {
+                int header = p[i + 3] & 0xFF;
+                if (streamType == STREAM_TYPE_HEVC) {
+                    int type = (header >> 1) & 0x3F;
+                    if ((type >= 16 && type <= 21) || type == 32) {
+                        return true;
+                    }
+                } else {
+                    int type = header & 0x1F;
+                    if (type == 5 || type == 7) {
+                        return true;
+                    }
+                }
+                i += 2;
+            }
+        }
+        return false;
+    }
+}
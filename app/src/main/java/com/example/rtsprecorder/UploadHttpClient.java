@@ -0,0 +1,239 @@
+package com.example.rtsprecorder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Minimal HTTP/1.1 client for the upload targets: one request per connection, a
+ * fixed-length body streamed through a {@link BandwidthLimiter}, and a small response
+ * body read into memory.
+ *
+ * HttpURLConnection is not used because it rejects WebDAV methods such as MKCOL and
+ * MOVE, and it adds headers of its own that S3 request signing would have to match.
+ */
+final class UploadHttpClient {
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int WRITE_SLICE = 16384;
+    private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+
+    static final class Response {
+        final int status;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Response(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /** Header value by lower-case name, or null. */
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        String bodyText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private UploadHttpClient() {
+    }
+
+    /** The Host header value that is sent for {@code url}; request signatures must use the same. */
+    static String hostHeader(URL url) {
+        int port = url.getPort();
+        return port == -1 || port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port;
+    }
+
+    /**
+     * Sends one request. {@code target} is the raw, already-encoded path plus query.
+     * Content-Length, Host and Connection are added here and must not be in {@code headers}.
+     */
+    static Response execute(String method, URL url, String target, Map<String, String> headers,
+                            byte[] body, int offset, int length, BandwidthLimiter limiter) throws IOException {
+        boolean tls = "https".equals(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        try (Socket socket = open(url.getHost(), port, tls)) {
+            StringBuilder request = new StringBuilder(512);
+            request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(hostHeader(url)).append("\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("Content-Length: ").append(length).append("\r\n")
+                    .append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            for (int sent = 0; sent < length; ) {
+                int slice = Math.min(WRITE_SLICE, length - sent);
+                if (limiter != null) {
+                    try {
+                        limiter.acquire(slice);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Upload interrupted");
+                    }
+                }
+                out.write(body, offset + sent, slice);
+                sent += slice;
+            }
+            out.flush();
+
+            return readResponse(new BufferedInputStream(socket.getInputStream()), "HEAD".equals(method));
+        }
+    }
+
+    private static Socket open(String host, int port, boolean tls) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            if (!tls) {
+                return socket;
+            }
+            SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(socket, host, port, true);
+            sslSocket.startHandshake();
+            // Raw SSL sockets do not check the host name; do what HttpsURLConnection would
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+                sslSocket.close();
+                throw new IOException("TLS certificate does not match host " + host);
+            }
+            return sslSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static Response readResponse(InputStream in, boolean headOnly) throws IOException {
+        String statusLine = readLine(in);
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Bad HTTP status line: " + statusLine);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad HTTP status line: " + statusLine);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+        }
+
+        byte[] body;
+        if (headOnly || status == 204 || status == 304 || (status >= 100 && status < 200)) {
+            body = new byte[0];
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            body = readChunked(in);
+        } else if (headers.containsKey("content-length")) {
+            body = readFully(in, Integer.parseInt(headers.get("content-length")));
+        } else {
+            body = readToEnd(in);
+        }
+        return new Response(status, headers, body);
+    }
+
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            int semicolon = sizeLine.indexOf(';');
+            int size;
+            try {
+                size = Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad chunk size: " + sizeLine);
+            }
+            if (size == 0) {
+                while (!readLine(in).isEmpty()) {
+                    // trailers
+                }
+                return body.toByteArray();
+            }
+            if (body.size() + size > MAX_RESPONSE_BYTES) {
+                throw new IOException("Response too large");
+            }
+            body.write(readFully(in, size));
+            readLine(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        if (length < 0 || length > MAX_RESPONSE_BYTES) {
+            throw new IOException("Response too large");
+        }
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n == -1) {
+                throw new IOException("Connection closed mid-response");
+            }
+            read += n;
+        }
+        return data;
+    }
+
+    private static byte[] readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (body.size() + n > MAX_RESPONSE_BYTES) {
+                throw new IOException("Response too large");
+            }
+            body.write(buffer, 0, n);
+        }
+        return body.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() > 8192) {
+                throw new IOException("HTTP header line too long");
+            }
+            line.append((char) b);
+        }
+        throw new IOException("Connection closed mid-response");
+    }
+}
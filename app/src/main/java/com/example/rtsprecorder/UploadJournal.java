@@ -0,0 +1,157 @@
+package com.example.rtsprecorder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pending uploads, one small JSON file per segment in app-private storage. A job is saved
+ * after every acknowledged part, so an upload interrupted by network loss, a crash or a
+ * service restart continues with the parts the server does not have yet.
+ */
+public class UploadJournal {
+
+    public static final class Job {
+        final String sourceUri;
+        final String objectName;
+        final long createdMs;
+        String targetId;
+        String uploadId;
+        long size;
+        int partSize;
+        final TreeMap<Integer, String> parts = new TreeMap<>();
+
+        Job(String sourceUri, String objectName, long createdMs) {
+            this.sourceUri = sourceUri;
+            this.objectName = objectName;
+            this.createdMs = createdMs;
+        }
+
+        /** Forgets the server-side state, e.g. after the upload id expired. */
+        void reset() {
+            uploadId = null;
+            parts.clear();
+        }
+    }
+
+    private final File directory;
+
+    public UploadJournal(File directory) {
+        this.directory = directory;
+    }
+
+    public synchronized void add(String sourceUri, String objectName) throws IOException {
+        save(new Job(sourceUri, objectName, System.currentTimeMillis()));
+    }
+
+    /** Oldest pending job, or null. */
+    public synchronized Job next() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
+        Job oldest = null;
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            Job job = load(file);
+            if (job != null && (oldest == null || job.createdMs < oldest.createdMs)) {
+                oldest = job;
+            }
+        }
+        return oldest;
+    }
+
+    public synchronized int size() {
+        String[] names = directory.list((dir, name) -> name.endsWith(".json"));
+        return names != null ? names.length : 0;
+    }
+
+    public synchronized void save(Job job) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create upload journal " + directory);
+        }
+        JSONObject json = new JSONObject();
+        try {
+            json.put("source", job.sourceUri);
+            json.put("name", job.objectName);
+            json.put("created", job.createdMs);
+            json.put("target", job.targetId);
+            json.put("uploadId", job.uploadId);
+            json.put("size", job.size);
+            json.put("partSize", job.partSize);
+            JSONObject parts = new JSONObject();
+            for (Map.Entry<Integer, String> part : job.parts.entrySet()) {
+                parts.put(part.getKey().toString(), part.getValue());
+            }
+            json.put("parts", parts);
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode upload journal entry", e);
+        }
+        // Write then rename, so a crash mid-write never leaves a truncated entry
+        File file = fileFor(job);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot update upload journal entry " + file.getName());
+        }
+    }
+
+    public synchronized void remove(Job job) {
+        File file = fileFor(job);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private File fileFor(Job job) {
+        return new File(directory, job.objectName + ".json");
+    }
+
+    private static Job load(File file) {
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            Job job = new Job(json.getString("source"), json.getString("name"), json.getLong("created"));
+            job.targetId = json.isNull("target") ? null : json.optString("target", null);
+            job.uploadId = json.isNull("uploadId") ? null : json.optString("uploadId", null);
+            job.size = json.optLong("size", 0);
+            job.partSize = json.optInt("partSize", 0);
+            JSONObject parts = json.optJSONObject("parts");
+            if (parts != null) {
+                for (Iterator<String> keys = parts.keys(); keys.hasNext(); ) {
+                    String key = keys.next();
+                    job.parts.put(Integer.parseInt(key), parts.getString(key));
+                }
+            }
+            return job;
+        } catch (IOException | JSONException | NumberFormatException e) {
+            // An unreadable entry would block the queue forever; drop it
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            return null;
+        }
+    }
+
+    /** Part numbers 1..partCount that the server has not acknowledged yet. */
+    static List<Integer> missingParts(Job job, int partCount) {
+        List<Integer> missing = new ArrayList<>();
+        for (int part = 1; part <= partCount; part++) {
+            if (!job.parts.containsKey(part)) {
+                missing.add(part);
+            }
+        }
+        return missing;
+    }
+}
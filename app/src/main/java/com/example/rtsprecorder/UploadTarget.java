@@ -0,0 +1,54 @@
+package com.example.rtsprecorder;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A remote store that accepts a file as numbered parts which may be sent in parallel and
+ * in any order, then assembled by {@link #complete}. Parts already acknowledged survive
+ * network loss and app restarts as long as the upload id is still valid on the server.
+ */
+public interface UploadTarget {
+
+    /** Thrown when the server no longer knows the upload id; the upload must start over. */
+    class UploadExpiredException extends IOException {
+        public UploadExpiredException(String message) {
+            super(message);
+        }
+    }
+
+    /** Identifies the store without credentials; journaled uploads for another target are restarted. */
+    String getId();
+
+    /** Starts an upload and returns its id. */
+    String begin(String objectName, long size) throws IOException;
+
+    /** Uploads part {@code partNumber} (1-based) and returns the token needed to complete. */
+    String uploadPart(String objectName, String uploadId, int partNumber, byte[] data, int length,
+                      BandwidthLimiter limiter) throws IOException;
+
+    /** Assembles the parts; {@code partTokens} is ordered by part number. */
+    void complete(String objectName, String uploadId, long size, List<String> partTokens) throws IOException;
+
+    /**
+     * Builds a target from the upload URL setting:
+     * {@code s3+http(s)://ACCESS_KEY:SECRET@host[:port]/bucket[/prefix][?region=...]} or
+     * {@code dav+http(s)://user:password@host/remote.php/dav/files/user[/folder]}.
+     */
+    static UploadTarget parse(String setting) {
+        Uri uri = Uri.parse(setting.trim());
+        String scheme = uri.getScheme();
+        if (scheme == null || uri.getHost() == null) {
+            throw new IllegalArgumentException("Upload URL needs a scheme and host");
+        }
+        if (scheme.equals("s3+http") || scheme.equals("s3+https")) {
+            return S3UploadTarget.fromUri(uri);
+        }
+        if (scheme.equals("dav+http") || scheme.equals("dav+https")) {
+            return WebDavUploadTarget.fromUri(uri);
+        }
+        throw new IllegalArgumentException("Upload URL must start with s3+http(s):// or dav+http(s)://");
+    }
+}
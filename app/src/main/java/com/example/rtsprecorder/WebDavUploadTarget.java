@@ -0,0 +1,126 @@
+package com.example.rtsprecorder;
+
+import android.net.Uri;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * WebDAV chunked upload in the form Nextcloud and ownCloud implement it: parts are PUT
+ * into a temporary collection under {@code /dav/uploads/<user>/} and a final MOVE of
+ * {@code .file} assembles them at the destination. Plain WebDAV has no way to assemble
+ * parts server-side, so other servers are not supported.
+ */
+public class WebDavUploadTarget implements UploadTarget {
+
+    private static final String FILES_MARKER = "/dav/files/";
+
+    private final URL server;
+    private final String filesPath;
+    private final String uploadsPath;
+    private final String authorization;
+
+    public WebDavUploadTarget(URL server, String filesPath, String uploadsPath, String user, String password) {
+        this.server = server;
+        this.filesPath = filesPath;
+        this.uploadsPath = uploadsPath;
+        this.authorization = "Basic " + Base64.encodeToString(
+                (user + ":" + password).getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+    }
+
+    static WebDavUploadTarget fromUri(Uri uri) {
+        String userInfo = uri.getUserInfo();
+        int colon = userInfo != null ? userInfo.indexOf(':') : -1;
+        if (colon <= 0) {
+            throw new IllegalArgumentException("WebDAV upload URL needs user:password@ before the host");
+        }
+        String path = uri.getEncodedPath() != null ? uri.getEncodedPath() : "";
+        int marker = path.indexOf(FILES_MARKER);
+        if (marker < 0) {
+            throw new IllegalArgumentException("WebDAV upload URL must be a Nextcloud/ownCloud files URL (.../dav/files/<user>/...)");
+        }
+        String afterMarker = path.substring(marker + FILES_MARKER.length());
+        int slash = afterMarker.indexOf('/');
+        String davUser = slash >= 0 ? afterMarker.substring(0, slash) : afterMarker;
+        if (davUser.isEmpty()) {
+            throw new IllegalArgumentException("WebDAV upload URL is missing the user after /dav/files/");
+        }
+        String filesPath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        String uploadsPath = path.substring(0, marker) + "/dav/uploads/" + davUser;
+        String protocol = uri.getScheme().substring("dav+".length());
+        try {
+            return new WebDavUploadTarget(new URL(protocol, uri.getHost(), uri.getPort(), "/"),
+                    filesPath, uploadsPath, userInfo.substring(0, colon), userInfo.substring(colon + 1));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Bad WebDAV server: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getId() {
+        return "dav:" + UploadHttpClient.hostHeader(server) + filesPath;
+    }
+
+    @Override
+    public String begin(String objectName, long size) throws IOException {
+        byte[] random = new byte[12];
+        new SecureRandom().nextBytes(random);
+        StringBuilder uploadId = new StringBuilder("rtsprecorder-");
+        for (byte b : random) {
+            uploadId.append(String.format(Locale.US, "%02x", b & 0xFF));
+        }
+        UploadHttpClient.Response response = send("MKCOL", uploadsPath + "/" + uploadId, objectName, null, new byte[0], 0, null);
+        if (!response.isSuccess()) {
+            throw new IOException("WebDAV failed to start upload of " + objectName + ": HTTP " + response.status);
+        }
+        return uploadId.toString();
+    }
+
+    @Override
+    public String uploadPart(String objectName, String uploadId, int partNumber, byte[] data, int length,
+                             BandwidthLimiter limiter) throws IOException {
+        // Chunk names must be the numbers 1..10000 for the server to assemble them in order
+        UploadHttpClient.Response response = send("PUT", uploadsPath + "/" + uploadId + "/" + partNumber,
+                objectName, null, data, length, limiter);
+        if (response.status == 404) {
+            throw new UploadExpiredException("WebDAV upload expired for " + objectName);
+        }
+        if (!response.isSuccess()) {
+            throw new IOException("WebDAV failed to upload part " + partNumber + " of " + objectName + ": HTTP " + response.status);
+        }
+        String etag = response.header("etag");
+        return etag != null ? etag : Integer.toString(partNumber);
+    }
+
+    @Override
+    public void complete(String objectName, String uploadId, long size, List<String> partTokens) throws IOException {
+        UploadHttpClient.Response response = send("MOVE", uploadsPath + "/" + uploadId + "/.file",
+                objectName, Long.toString(size), new byte[0], 0, null);
+        if (response.status == 404) {
+            throw new UploadExpiredException("WebDAV upload expired for " + objectName);
+        }
+        if (!response.isSuccess()) {
+            throw new IOException("WebDAV failed to complete upload of " + objectName + ": HTTP " + response.status);
+        }
+    }
+
+    private UploadHttpClient.Response send(String method, String path, String objectName, String totalLength,
+                                           byte[] body, int length, BandwidthLimiter limiter) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Authorization", authorization);
+        // Chunking v2 wants the final destination on every request of the upload
+        headers.put("Destination", new URL(server, filesPath + "/" + Uri.encode(objectName)).toString());
+        if (totalLength != null) {
+            headers.put("OC-Total-Length", totalLength);
+        }
+        return UploadHttpClient.execute(method, server, path, headers, body, 0, length, limiter);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AccessUnitAssemblerTest {
+
+    private static final int PACKET = TsTestStreams.PACKET;
+    private static final int VIDEO_PID = TsTestStreams.VIDEO_PID;
+
+    private static final class Frame {
+        final byte[] data;
+        final long ptsUs;
+        final boolean keyframe;
+        final long receivedAtMs;
+
+        Frame(byte[] data, long ptsUs, boolean keyframe, long receivedAtMs) {
+            this.data = data;
+            this.ptsUs = ptsUs;
+            this.keyframe = keyframe;
+            this.receivedAtMs = receivedAtMs;
+        }
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private int streamEnds = 0;
+    private TsIngestTap tap;
+    private AccessUnitAssembler assembler;
+
+    @Before
+    public void setUp() {
+        tap = new TsIngestTap(new File("unused.ts"), "test", line -> { }, () -> { });
+        assembler = new AccessUnitAssembler(tap);
+        tap.addListener(assembler);
+        assembler.addListener(new AccessUnitAssembler.Listener() {
+            @Override
+            public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+                frames.add(new Frame(Arrays.copyOf(data, length), ptsUs, keyframe, receivedAtMs));
+            }
+
+            @Override
+            public void onStreamEnd() {
+                streamEnds++;
+            }
+        });
+        feed(TsTestStreams.psi(), 0);
+    }
+
+    private void feed(byte[] packets, long nowMs) {
+        tap.processPackets(packets, packets.length, nowMs);
+    }
+
+    private static byte[] es(int length, int nalHeader) {
+        byte[] es = new byte[length];
+        es[3] = 1;
+        es[4] = (byte) nalHeader;
+        for (int i = 5; i < length; i++) {
+            es[i] = (byte) (i * 7 + 1);
+        }
+        return es;
+    }
+
+    @Test
+    public void framesSpanningPacketsAreReassembled() {
+        byte[] keyframe = es(1000, 0x65);
+        byte[] next = es(50, 0x41);
+        feed(TsTestStreams.frame(VIDEO_PID, 90000, keyframe, false), 1000);
+        assertTrue(frames.isEmpty());
+        // A frame is complete when the next PES starts
+        feed(TsTestStreams.frame(VIDEO_PID, 93600, next, false), 1040);
+        assembler.onStreamEnd();
+
+        assertEquals(2, frames.size());
+        assertArrayEquals(keyframe, frames.get(0).data);
+        assertEquals(1_000_000, frames.get(0).ptsUs);
+        assertTrue(frames.get(0).keyframe);
+        assertEquals(1000, frames.get(0).receivedAtMs);
+        assertArrayEquals(next, frames.get(1).data);
+        assertEquals(1_040_000, frames.get(1).ptsUs);
+        assertFalse(frames.get(1).keyframe);
+        assertEquals(1, streamEnds);
+    }
+
+    @Test
+    public void ptsUsesAll33Bits() {
+        long pts = (1L << 33) - 90;
+        feed(TsTestStreams.frame(VIDEO_PID, pts, es(20, 0x65), false), 0);
+        assembler.onStreamEnd();
+
+        assertEquals(pts * 100 / 9, frames.get(0).ptsUs);
+    }
+
+    @Test
+    public void otherPidsAreIgnored() {
+        feed(TsTestStreams.frame(TsTestStreams.AUDIO_PID, 0, es(20, 0x65), false), 0);
+        assembler.onStreamEnd();
+
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void truncatedPesHeaderDropsTheFrameAndItsContinuation() {
+        byte[] first = TsTestStreams.frame(VIDEO_PID, 0, es(400, 0x65), false);
+        // Claim a PES header longer than the packet
+        first[4 + 8] = (byte) 0xF0;
+        feed(first, 0);
+        feed(TsTestStreams.frame(VIDEO_PID, 3600, es(20, 0x41), false), 40);
+        assembler.onStreamEnd();
+
+        assertEquals(1, frames.size());
+        assertEquals(40_000, frames.get(0).ptsUs);
+    }
+
+    @Test
+    public void pesWithPtsFlagButShortHeaderIsDropped() {
+        byte[] packet = TsTestStreams.frame(VIDEO_PID, 0, es(20, 0x65), false);
+        int payload = PACKET - 34;
+        packet[payload + 8] = 2;
+        feed(packet, 0);
+        assembler.onStreamEnd();
+
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void oversizedAccessUnitIsDropped() {
+        feed(TsTestStreams.frame(VIDEO_PID, 0, es(100, 0x65), false), 0);
+        byte[] filler = new byte[PACKET - 4];
+        byte[] continuation = TsTestStreams.packet(VIDEO_PID, false, false, filler);
+        for (int i = 0; i <= AccessUnitAssembler.MAX_FRAME_BYTES / filler.length; i++) {
+            feed(continuation, 0);
+        }
+        byte[] next = es(30, 0x41);
+        feed(TsTestStreams.frame(VIDEO_PID, 3600, next, false), 40);
+        assembler.onStreamEnd();
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(next, frames.get(0).data);
+    }
+
+    @Test
+    public void parameterSetsAreExtractedWithStartCodes() {
+        byte[] sps = {0x67, 0x42, 0x00, 0x1E};
+        byte[] pps = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+        byte[] frame = TsTestStreams.concat(new byte[]{0, 0, 0, 1}, sps, new byte[]{0, 0, 0, 1}, pps,
+                new byte[]{0, 0, 1}, new byte[]{0x65, (byte) 0x88});
+
+        byte[][] sets = AccessUnitAssembler.extractParameterSets(frame, frame.length, TsIngestTap.STREAM_TYPE_H264);
+
+        assertArrayEquals(TsTestStreams.concat(new byte[]{0, 0, 0, 1}, sps), sets[0]);
+        assertArrayEquals(TsTestStreams.concat(new byte[]{0, 0, 0, 1}, pps), sets[1]);
+        byte[] noPps = Arrays.copyOf(frame, 8);
+        assertNull(AccessUnitAssembler.extractParameterSets(noPps, noPps.length, TsIngestTap.STREAM_TYPE_H264));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The main and sub-stream taps side by side, as in dual-stream recording: the camera
+ * usually sends both with the same PIDs, analysis runs on the sub-stream, and its
+ * wall-clock times drive recording of the main stream.
+ */
+public class DualStreamTapsTest {
+
+    private static final int VIDEO_PID = TsTestStreams.VIDEO_PID;
+    private static final byte[] HEVC_IDR = {0, 0, 1, 19 << 1, 0x01, 0x00};
+    private static final byte[] HEVC_TRAIL = {0, 0, 1, 1 << 1, 0x01, 0x00};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TsIngestTap mainTap;
+    private TsIngestTap subTap;
+    private final List<Long> subFrameTimes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mainTap = new TsIngestTap(new File(folder.getRoot(), "main.ts"), "main", line -> { }, () -> { });
+        subTap = new TsIngestTap(new File(folder.getRoot(), "sub.ts"), "sub", line -> { }, () -> { });
+        AccessUnitAssembler analysis = new AccessUnitAssembler(subTap);
+        subTap.addListener(analysis);
+        analysis.addListener(new AccessUnitAssembler.Listener() {
+            @Override
+            public void onAccessUnit(byte[] data, int length, long ptsUs, boolean keyframe, long receivedAtMs) {
+                subFrameTimes.add(receivedAtMs);
+            }
+
+            @Override
+            public void onStreamEnd() {
+            }
+        });
+
+        feed(mainTap, TsTestStreams.concat(TsTestStreams.pat(TsTestStreams.PMT_PID),
+                TsTestStreams.pmt(TsTestStreams.PMT_PID, TsIngestTap.STREAM_TYPE_HEVC, VIDEO_PID)), 0);
+        feed(subTap, TsTestStreams.psi(), 0);
+    }
+
+    private static void feed(TsIngestTap tap, byte[] packets, long nowMs) {
+        tap.processPackets(packets, packets.length, nowMs);
+    }
+
+    @Test
+    public void eachTapKeepsItsOwnCodec() {
+        assertEquals(TsIngestTap.STREAM_TYPE_HEVC, mainTap.getVideoStreamType());
+        assertEquals(TsIngestTap.STREAM_TYPE_H264, subTap.getVideoStreamType());
+        assertEquals(VIDEO_PID, mainTap.getVideoPid());
+        assertEquals(VIDEO_PID, subTap.getVideoPid());
+    }
+
+    @Test
+    public void analysisOnlySeesSubStreamFramesWithTheirArrivalTimes() {
+        for (int i = 0; i < 4; i++) {
+            feed(mainTap, TsTestStreams.frame(VIDEO_PID, i * 3600L, HEVC_IDR, false), 1000 + i * 40);
+            feed(subTap, TsTestStreams.frame(VIDEO_PID, i * 9000L, TsTestStreams.H264_SLICE, false), 1010 + i * 100);
+        }
+
+        // The last sub frame is only complete once the next one starts
+        assertEquals(Arrays.asList(1010L, 1110L, 1210L), subFrameTimes);
+    }
+
+    @Test
+    public void subStreamTriggerSelectsMainStreamPreRollByWallClock() {
+        List<Long> eventStarts = new ArrayList<>();
+        PreEventRingBuffer ring = new PreEventRingBuffer(mainTap, folder.getRoot(), 1000 * TsTestStreams.PACKET,
+                5000, 1000, 60000, (file, startMs, endMs) -> eventStarts.add(startMs), line -> { });
+        mainTap.addListener(ring);
+
+        // Main keyframes every 2 s; the sub-stream runs on its own, slightly offset, packet clock
+        for (long t = 0; t <= 10000; t += 1000) {
+            feed(mainTap, TsTestStreams.frame(VIDEO_PID, t * 90, t % 2000 == 0 ? HEVC_IDR : HEVC_TRAIL, false), t);
+            feed(subTap, TsTestStreams.frame(VIDEO_PID, t * 90, TsTestStreams.H264_SLICE, false), t + 330);
+        }
+        long triggerMs = subFrameTimes.get(subFrameTimes.size() - 1);
+        ring.trigger(triggerMs);
+        for (long t = 11000; t <= 13000; t += 1000) {
+            feed(mainTap, TsTestStreams.frame(VIDEO_PID, t * 90, HEVC_TRAIL, false), t);
+        }
+
+        assertEquals(9330, triggerMs);
+        assertEquals(Arrays.asList(6000L), eventStarts);
+    }
+}
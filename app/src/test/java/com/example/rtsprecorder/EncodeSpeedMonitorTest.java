@@ -0,0 +1,96 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EncodeSpeedMonitorTest {
+
+    private final List<float[]> reports = new ArrayList<>();
+    private EncodeSpeedMonitor monitor;
+
+    @Before
+    public void setUp() {
+        monitor = new EncodeSpeedMonitor((speed, outputFps) -> reports.add(new float[]{speed, outputFps}));
+    }
+
+    // Frames 1/fps apart in media time, arriving frameWallMs apart
+    private long feed(long startMs, long startPtsUs, int fps, long frameWallMs, int count) {
+        long frameUs = 1_000_000L / fps;
+        for (int i = 0; i < count; i++) {
+            monitor.onAccessUnit(new byte[0], 0, startPtsUs + i * frameUs, i % fps == 0, startMs + i * frameWallMs);
+        }
+        return startMs + count * frameWallMs;
+    }
+
+    @Test
+    public void nothingIsMeasuredUntilArmed() {
+        feed(0, 0, 25, 40, 500);
+
+        assertTrue(reports.isEmpty());
+    }
+
+    @Test
+    public void encoderKeepingUpReportsRealTime() {
+        monitor.arm();
+        feed(1000, 0, 25, 40, 500);
+
+        assertEquals(1, reports.size());
+        assertEquals(1.0f, reports.get(0)[0], 0.01f);
+        assertEquals(25f, reports.get(0)[1], 0.2f);
+    }
+
+    @Test
+    public void slowEncoderReportsBelowRealTime() {
+        monitor.arm();
+        // Each 40 ms frame takes 80 ms to come out
+        feed(1000, 0, 25, 80, 300);
+
+        assertEquals(1, reports.size());
+        assertEquals(0.5f, reports.get(0)[0], 0.01f);
+        assertEquals(12.5f, reports.get(0)[1], 0.2f);
+    }
+
+    @Test
+    public void reportsOncePerArm() {
+        monitor.arm();
+        long now = feed(1000, 0, 25, 40, 500);
+        feed(now, 20_000_000, 25, 40, 500);
+        assertEquals(1, reports.size());
+
+        monitor.arm();
+        feed(now + 20000, 40_000_000, 25, 40, 500);
+        assertEquals(2, reports.size());
+    }
+
+    @Test
+    public void streamEndRestartsTheWarmUp() {
+        monitor.arm();
+        long now = feed(1000, 0, 25, 40, 200);
+        monitor.onStreamEnd();
+        // After the reconnect only 9 s are left in this run: warm-up plus window need 13 s
+        feed(now, 0, 25, 40, 225);
+        assertTrue(reports.isEmpty());
+
+        feed(now + 9000, 9_000_000, 25, 40, 200);
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    public void timestampWrapInsideTheWindowMeasuresAgain() {
+        monitor.arm();
+        // The window opens on the last of these frames, just before the 33-bit PTS wraps
+        long now = feed(1000, 95_440_000_000L, 25, 40, 76);
+        now = feed(now, 0, 25, 40, 300);
+        assertTrue(reports.isEmpty());
+
+        feed(now, 12_000_000, 25, 40, 400);
+        assertEquals(1, reports.size());
+        assertEquals(1.0f, reports.get(0)[0], 0.01f);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EncodingProfileTest {
+
+    @Test
+    public void ladderGetsCheaperAtEveryStep() {
+        EncodingProfile[] ladder = EncodingProfile.LADDER;
+        for (int i = 1; i < ladder.length; i++) {
+            assertTrue(ladder[i].videoKbps < ladder[i - 1].videoKbps);
+            assertTrue(ladder[i].scale < ladder[i - 1].scale);
+        }
+    }
+
+    @Test
+    public void namesMapToLadderAndSpinner() {
+        assertEquals(0, EncodingProfile.indexOf("high"));
+        assertEquals(3, EncodingProfile.indexOf("minimum"));
+        assertEquals(-1, EncodingProfile.indexOf(EncodingProfile.AUTO));
+        assertEquals(-1, EncodingProfile.indexOf("ultra"));
+
+        assertEquals(0, EncodingProfile.toSpinnerIndex(EncodingProfile.AUTO));
+        for (EncodingProfile profile : EncodingProfile.LADDER) {
+            assertEquals(profile.name, EncodingProfile.fromSpinnerIndex(EncodingProfile.toSpinnerIndex(profile.name)));
+        }
+        assertEquals(EncodingProfile.AUTO, EncodingProfile.fromSpinnerIndex(0));
+        assertEquals(EncodingProfile.AUTO, EncodingProfile.fromSpinnerIndex(EncodingProfile.LADDER.length + 1));
+    }
+
+    @Test
+    public void transcodeOptionsForFullSizeKeepSourceRateAndSize() {
+        assertEquals("vcodec=h264,venc=x264{preset=veryfast,threads=0},vb=2000,acodec=mp4a,ab=128",
+                EncodingProfile.LADDER[0].transcodeOptions(0));
+    }
+
+    @Test
+    public void transcodeOptionsForReducedProfileWithKeyframeInterval() {
+        EncodingProfile low = EncodingProfile.LADDER[EncodingProfile.indexOf("low")];
+
+        assertEquals("vcodec=h264,venc=x264{preset=ultrafast,threads=2,keyint=15,min-keyint=7}"
+                        + ",vb=800,scale=0.50,fps=15,acodec=mp4a,ab=128",
+                low.transcodeOptions(15));
+        assertTrue(low.transcodeOptions(1).contains("keyint=1,min-keyint=1}"));
+    }
+
+    @Test
+    public void totalBitrateIncludesAudio() {
+        assertEquals(2128, EncodingProfile.LADDER[0].totalKbps());
+    }
+}
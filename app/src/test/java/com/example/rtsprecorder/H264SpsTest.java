@@ -0,0 +1,166 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class H264SpsTest {
+
+    /** Writes SPS fields MSB first, with Exp-Golomb codes. */
+    private static final class SpsWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current = 0;
+        private int count = 0;
+
+        SpsWriter bits(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++count == 8) {
+                    out.write(current);
+                    current = 0;
+                    count = 0;
+                }
+            }
+            return this;
+        }
+
+        SpsWriter bit(boolean value) {
+            return bits(value ? 1 : 0, 1);
+        }
+
+        SpsWriter ue(int value) {
+            int coded = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(coded);
+            bits(0, length - 1);
+            return bits(coded, length);
+        }
+
+        SpsWriter se(int value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        /** NAL header, RBSP stop bit and emulation prevention. */
+        byte[] nal() {
+            bit(true);
+            while (count != 0) {
+                bit(false);
+            }
+            byte[] rbsp = out.toByteArray();
+            ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            nal.write(0x67);
+            int zeros = 0;
+            for (byte b : rbsp) {
+                if (zeros >= 2 && (b & 0xFF) <= 3) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+    }
+
+    private static SpsWriter header(int profileIdc) {
+        return new SpsWriter().bits(profileIdc, 8).bits(0, 8).bits(40, 8).ue(0);
+    }
+
+    // Everything after the profile-specific part, with pic_order_cnt_type 0
+    private static SpsWriter tail(SpsWriter w, int widthMbs, int heightMapUnits, boolean frameMbsOnly) {
+        w.ue(0).ue(0).ue(4).ue(1).bit(false).ue(widthMbs - 1).ue(heightMapUnits - 1).bit(frameMbsOnly);
+        if (!frameMbsOnly) {
+            w.bit(false);
+        }
+        return w.bit(true);
+    }
+
+    @Test
+    public void baselineWithoutCropping() {
+        byte[] nal = tail(header(66), 80, 45, true).bit(false).bit(false).nal();
+
+        H264Sps sps = H264Sps.parse(nal);
+
+        assertEquals(1280, sps.width);
+        assertEquals(720, sps.height);
+    }
+
+    @Test
+    public void highProfileCroppedTo1080() {
+        SpsWriter w = header(100).ue(1).ue(0).ue(0).bit(false).bit(false);
+        tail(w, 120, 68, true).bit(true).ue(0).ue(0).ue(0).ue(4).bit(false);
+
+        H264Sps sps = H264Sps.parse(w.nal());
+
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+    }
+
+    @Test
+    public void startCodeIsSkipped() {
+        SpsWriter w = header(100).ue(1).ue(0).ue(0).bit(false).bit(false);
+        tail(w, 120, 68, true).bit(true).ue(0).ue(0).ue(0).ue(4).bit(false);
+        byte[] nal = w.nal();
+        byte[] withStartCode = new byte[nal.length + 4];
+        withStartCode[3] = 1;
+        System.arraycopy(nal, 0, withStartCode, 4, nal.length);
+
+        H264Sps sps = H264Sps.parse(withStartCode);
+
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+    }
+
+    @Test
+    public void emulationPreventionBytesAreRemoved() {
+        // Level 0 followed by a long Exp-Golomb code puts 00 00 02 into the RBSP
+        SpsWriter w = new SpsWriter().bits(66, 8).bits(0, 8).bits(0, 8).ue(63);
+        byte[] nal = tail(w, 80, 45, true).bit(false).bit(false).nal();
+        assertEquals(3, nal[4]);
+
+        H264Sps sps = H264Sps.parse(nal);
+
+        assertEquals(1280, sps.width);
+        assertEquals(720, sps.height);
+    }
+
+    @Test
+    public void interlacedHeightCountsFieldPairs() {
+        byte[] nal = tail(header(77), 45, 18, false).bit(false).bit(false).nal();
+
+        H264Sps sps = H264Sps.parse(nal);
+
+        assertEquals(720, sps.width);
+        assertEquals(576, sps.height);
+    }
+
+    @Test
+    public void scalingListsAndPicOrderCountType1AreSkipped() {
+        SpsWriter w = header(100).ue(1).ue(0).ue(0).bit(false).bit(true);
+        // Only the first of the eight lists is present, with a few deltas and then an early end
+        w.bit(true).se(2).se(-3).se(-7);
+        for (int i = 1; i < 8; i++) {
+            w.bit(false);
+        }
+        w.ue(0).ue(1).bit(false).se(-1).se(2).ue(2).se(1).se(-1);
+        w.ue(1).bit(false).ue(39).ue(29).bit(true).bit(true).bit(false).bit(false);
+
+        H264Sps sps = H264Sps.parse(w.nal());
+
+        assertNotNull(sps);
+        assertEquals(640, sps.width);
+        assertEquals(480, sps.height);
+    }
+
+    @Test
+    public void truncatedSpsIsRejected() {
+        byte[] nal = tail(header(66), 80, 45, true).bit(false).bit(false).nal();
+
+        assertNull(H264Sps.parse(Arrays.copyOf(nal, 5)));
+        assertNull(H264Sps.parse(new byte[]{0, 0, 1}));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MotionDetectorTest {
+
+    private static final int WIDTH = MotionDetector.GRID_WIDTH;
+    private static final int HEIGHT = MotionDetector.GRID_HEIGHT;
+    private static final float ONE_BLOCK = 1f / ((WIDTH / 10) * (HEIGHT / 10));
+
+    private final List<String> calls = new ArrayList<>();
+    private MotionDetector detector;
+
+    @Before
+    public void setUp() {
+        detector = new MotionDetector(new MotionDetector.Listener() {
+            @Override
+            public void onMotionStart(long timeMs, float score) {
+                calls.add("start@" + timeMs);
+            }
+
+            @Override
+            public void onMotionScore(long timeMs, float score) {
+                calls.add("score@" + timeMs);
+            }
+
+            @Override
+            public void onMotionEnd(long timeMs, float peakScore) {
+                calls.add("end@" + timeMs);
+            }
+        });
+    }
+
+    // Flat grey frame with the first few 10x10 blocks of the top row set to another brightness
+    private static byte[] frame(int blocks, int brightness) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) 100);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < blocks * 10; x++) {
+                luma[y * WIDTH + x] = (byte) brightness;
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void scoreIsTheFractionOfChangedBlocks() {
+        assertEquals(0, detector.process(frame(0, 100), 0), 0);
+        assertEquals(4 * ONE_BLOCK, detector.process(frame(4, 200), 500), 1e-6);
+        // Below the per-block threshold of 15 per pixel
+        assertEquals(0, detector.process(frame(4, 190), 1000), 0);
+    }
+
+    @Test
+    public void motionStartsAfterTwoMovingSamplesInARow() {
+        detector.process(frame(0, 100), 0);
+        detector.process(frame(4, 200), 500);
+        assertTrue(calls.isEmpty());
+        detector.process(frame(4, 100), 1000);
+
+        assertEquals(Arrays.asList("start@1000"), calls);
+    }
+
+    @Test
+    public void isolatedSpikesDoNotStartMotion() {
+        detector.process(frame(0, 100), 0);
+        detector.process(frame(4, 200), 500);
+        detector.process(frame(4, 200), 1000);
+        detector.process(frame(4, 100), 1500);
+        detector.process(frame(4, 100), 2000);
+
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void motionEndsAfterFiveQuietSeconds() {
+        detector.process(frame(0, 100), 0);
+        detector.process(frame(4, 200), 500);
+        detector.process(frame(4, 100), 1000);
+        for (long t = 1500; t <= 6000; t += 500) {
+            detector.process(frame(4, 100), t);
+        }
+
+        assertEquals("start@1000", calls.get(0));
+        assertEquals("score@6000", calls.get(calls.size() - 2));
+        assertEquals("end@6000", calls.get(calls.size() - 1));
+    }
+
+    @Test
+    public void movingSamplesKeepMotionGoing() {
+        detector.process(frame(0, 100), 0);
+        detector.process(frame(4, 200), 500);
+        detector.process(frame(4, 100), 1000);
+        detector.process(frame(4, 200), 4000);
+        detector.process(frame(4, 100), 8500);
+
+        assertEquals(Arrays.asList("start@1000", "score@4000", "score@8500"), calls);
+        assertTrue(MotionDetector.isMoving(4 * ONE_BLOCK));
+    }
+
+    @Test
+    public void wholeFrameChangesAreIgnored() {
+        detector.process(frame(0, 100), 0);
+        byte[] lightsOn = new byte[WIDTH * HEIGHT];
+        Arrays.fill(lightsOn, (byte) 220);
+        assertEquals(1f, detector.process(lightsOn, 500), 0);
+        assertEquals(1f, detector.process(frame(0, 100), 1000), 0);
+
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void endMotionClosesAnActivePeriod() {
+        detector.process(frame(0, 100), 0);
+        detector.process(frame(4, 200), 500);
+        detector.process(frame(4, 100), 1000);
+        detector.endMotion(1200);
+        detector.endMotion(1300);
+
+        assertEquals(Arrays.asList("start@1000", "end@1200"), calls);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PreEventRingBufferTest {
+
+    private static final int PACKET = TsTestStreams.PACKET;
+    private static final long PRE_ROLL_MS = 10000;
+    private static final long POST_ROLL_MS = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> logs = new ArrayList<>();
+    private final List<long[]> events = new ArrayList<>();
+    private final List<File> eventFiles = new ArrayList<>();
+    private TsIngestTap tap;
+    private PreEventRingBuffer ring;
+
+    @Before
+    public void setUp() {
+        tap = new TsIngestTap(new File(folder.getRoot(), "unused.ts"), "test", logs::add, () -> { });
+    }
+
+    private void startRing(int capacityPackets) {
+        ring = new PreEventRingBuffer(tap, folder.getRoot(), capacityPackets * PACKET, PRE_ROLL_MS, POST_ROLL_MS,
+                60000, (file, startMs, endMs) -> {
+                    eventFiles.add(file);
+                    events.add(new long[]{startMs, endMs});
+                }, logs::add);
+        tap.addListener(ring);
+        byte[] psi = TsTestStreams.psi();
+        tap.processPackets(psi, psi.length, 0);
+    }
+
+    // One single-packet frame per second; the PTS doubles as a marker for the packet
+    private byte[] frameAt(long timeMs, boolean keyframe) {
+        return TsTestStreams.frame(TsTestStreams.VIDEO_PID, timeMs * 90,
+                keyframe ? TsTestStreams.H264_IDR : TsTestStreams.H264_SLICE, false);
+    }
+
+    private void feedSeconds(int fromSecond, int toSecond, int keyframeEverySeconds) {
+        for (int s = fromSecond; s <= toSecond; s++) {
+            byte[] frame = frameAt(s * 1000L, s % keyframeEverySeconds == 0);
+            tap.processPackets(frame, frame.length, s * 1000L);
+        }
+    }
+
+    @Test
+    public void eventStartsAtOldestKeyframeInsideThePreRoll() throws Exception {
+        startRing(1000);
+        feedSeconds(0, 20, 2);
+        ring.trigger(20500);
+        assertFalse(ring.isRecordingEvent());
+        // The event opens on the next packet and ends on the first one after the post-roll
+        feedSeconds(21, 23, 2);
+
+        assertEquals(1, events.size());
+        assertEquals(12000, events.get(0)[0]);
+        assertEquals(23000, events.get(0)[1]);
+        assertFalse(ring.isRecordingEvent());
+
+        byte[] written = Files.readAllBytes(eventFiles.get(0).toPath());
+        assertEquals((2 + 12) * PACKET, written.length);
+        assertArrayEquals(TsTestStreams.psi(), Arrays.copyOf(written, 2 * PACKET));
+        assertArrayEquals(frameAt(12000, true), Arrays.copyOfRange(written, 2 * PACKET, 3 * PACKET));
+        assertArrayEquals(frameAt(23000, false), Arrays.copyOfRange(written, written.length - PACKET, written.length));
+    }
+
+    @Test
+    public void triggersDuringAnEventExtendThePostRoll() {
+        startRing(1000);
+        feedSeconds(0, 10, 2);
+        ring.trigger(10500);
+        feedSeconds(11, 12, 2);
+        ring.trigger(12500);
+        feedSeconds(13, 14, 2);
+        assertTrue(ring.isRecordingEvent());
+        feedSeconds(15, 15, 2);
+
+        assertEquals(1, events.size());
+        assertEquals(15000, events.get(0)[1]);
+    }
+
+    @Test
+    public void overwrittenPreRollIsSkippedAndReported() {
+        // Six packets: two PSI packets and four frames in, the oldest frames are gone
+        startRing(6);
+        feedSeconds(0, 10, 4);
+        ring.trigger(10000);
+        feedSeconds(11, 13, 4);
+
+        assertEquals(1, events.size());
+        assertEquals(8000, events.get(0)[0]);
+        assertTrue(logs.stream().anyMatch(line -> line.startsWith("WARN: Pre-event buffer too small")));
+    }
+
+    @Test
+    public void preRollNeverCrossesAReconnect() {
+        startRing(1000);
+        feedSeconds(0, 5, 2);
+        ring.onStreamEnd();
+        byte[] psi = TsTestStreams.psi();
+        tap.processPackets(psi, psi.length, 6000);
+
+        ring.trigger(6500);
+        feedSeconds(7, 7, 2);
+        assertTrue(ring.isRecordingEvent());
+        assertTrue(logs.contains("Event triggered, no buffered keyframe yet - starting at next keyframe"));
+        feedSeconds(8, 11, 2);
+
+        assertEquals(1, events.size());
+        assertEquals(8000, events.get(0)[0]);
+    }
+
+    @Test
+    public void capacityCoversThePreRollWithinLimits() {
+        assertEquals(2128 * 125 * 30 * 3 / 2, PreEventRingBuffer.capacityFor(2128, 30000));
+        assertEquals(30, PreEventRingBuffer.secondsHeld(PreEventRingBuffer.capacityFor(2128, 30000), 2128));
+        assertEquals(PreEventRingBuffer.MIN_CAPACITY_BYTES, PreEventRingBuffer.capacityFor(128, 5000));
+        assertEquals(PreEventRingBuffer.MAX_CAPACITY_BYTES, PreEventRingBuffer.capacityFor(8000, 300000));
+        assertTrue(PreEventRingBuffer.secondsHeld(PreEventRingBuffer.MAX_CAPACITY_BYTES, 8000) < 300);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Signing checked against AWS's published Signature Version 4 examples: the "get-vanilla"
+ * cases of the SigV4 test suite and the worked examples in the S3 API reference
+ * ("Signature Calculations for the Authorization Header: Transferring Payload in a Single
+ * Chunk").
+ */
+public class S3UploadTargetTest {
+
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    // SigV4 test suite credentials
+    private static final String SUITE_SECRET = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    private static final String SUITE_DATE = "20150830T123600Z";
+
+    // S3 API reference credentials
+    private static final String S3_SECRET = "wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY";
+    private static final String S3_DATE = "20130524T000000Z";
+    private static final String S3_HOST = "examplebucket.s3.amazonaws.com";
+
+    @Test
+    public void suiteGetVanilla() throws Exception {
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", "example.amazonaws.com");
+        headers.put("x-amz-date", SUITE_DATE);
+        String canonicalRequest = S3UploadTarget.canonicalRequest("GET", "/", "", headers, EMPTY_SHA256);
+
+        assertEquals("GET\n/\n\nhost:example.amazonaws.com\nx-amz-date:20150830T123600Z\n\nhost;x-amz-date\n"
+                + EMPTY_SHA256, canonicalRequest);
+        assertEquals("5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31",
+                S3UploadTarget.signature(SUITE_SECRET, "us-east-1", "service", SUITE_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void suiteGetVanillaQueryOrder() throws Exception {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("Param1", "value1");
+        query.put("Param2", "value2");
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", "example.amazonaws.com");
+        headers.put("x-amz-date", SUITE_DATE);
+        String canonicalRequest = S3UploadTarget.canonicalRequest("GET", "/",
+                S3UploadTarget.canonicalQuery(query), headers, EMPTY_SHA256);
+
+        assertEquals("b97d918cfa904a5beff61c982a1b6f458b799221646efd99d3219ec94cdf2500",
+                S3UploadTarget.signature(SUITE_SECRET, "us-east-1", "service", SUITE_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void s3GetObject() throws Exception {
+        SortedMap<String, String> headers = s3Headers(EMPTY_SHA256);
+        headers.put("range", "bytes=0-9");
+        String canonicalRequest = S3UploadTarget.canonicalRequest("GET", "/test.txt", "", headers, EMPTY_SHA256);
+
+        assertEquals("f0e8bdb87c964420e857bd35b5d6ed310bd44f0170aba48dd91039c6036bdb41",
+                S3UploadTarget.signature(S3_SECRET, "us-east-1", "s3", S3_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void s3PutObject() throws Exception {
+        String payloadHash = "44ce7dd67c959e0d3524ffac1771dfbba87d2b6b4b4e99e42034a8b803f8b072";
+        SortedMap<String, String> headers = s3Headers(payloadHash);
+        headers.put("date", "Fri, 24 May 2013 00:00:00 GMT");
+        headers.put("x-amz-storage-class", "REDUCED_REDUNDANCY");
+        String path = "/" + S3UploadTarget.encode("test$file.text", false);
+        assertEquals("/test%24file.text", path);
+        String canonicalRequest = S3UploadTarget.canonicalRequest("PUT", path, "", headers, payloadHash);
+
+        assertEquals("98ad721746da40c64f1a55b78f14c238d841ea1380cd77a1b5971af0ece108bd",
+                S3UploadTarget.signature(S3_SECRET, "us-east-1", "s3", S3_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void s3GetBucketLifecycle() throws Exception {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("lifecycle", "");
+        String canonicalQuery = S3UploadTarget.canonicalQuery(query);
+        assertEquals("lifecycle=", canonicalQuery);
+        String canonicalRequest = S3UploadTarget.canonicalRequest("GET", "/", canonicalQuery,
+                s3Headers(EMPTY_SHA256), EMPTY_SHA256);
+
+        assertEquals("fea454ca298b7da1c68078a5d1bdbfbbe0d65c699e0f91ac7a200a0136783543",
+                S3UploadTarget.signature(S3_SECRET, "us-east-1", "s3", S3_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void s3ListObjects() throws Exception {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("max-keys", "2");
+        query.put("prefix", "J");
+        String canonicalRequest = S3UploadTarget.canonicalRequest("GET", "/",
+                S3UploadTarget.canonicalQuery(query), s3Headers(EMPTY_SHA256), EMPTY_SHA256);
+
+        assertEquals("34b48302e7b5fa45bde8084f4b7868a86f0a534bc59db6670ed5711ef69dc6f7",
+                S3UploadTarget.signature(S3_SECRET, "us-east-1", "s3", S3_DATE, canonicalRequest));
+    }
+
+    @Test
+    public void uploadPartRequestIsSignedOverItsActualPathAndHeaders() throws Exception {
+        S3UploadTarget target = new S3UploadTarget(new URL("http://minio.local:9000/"), "cams",
+                "front door", "eu-central-1", "AKIDEXAMPLE", SUITE_SECRET);
+        String path = target.canonicalPath("recording 1.mp4");
+        assertEquals("/cams/front%20door/recording%201.mp4", path);
+
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("partNumber", "2");
+        query.put("uploadId", "a/b+c");
+        String canonicalQuery = S3UploadTarget.canonicalQuery(query);
+        assertEquals("partNumber=2&uploadId=a%2Fb%2Bc", canonicalQuery);
+
+        // The request must be signed with the Host header the client sends, port included
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", "minio.local:9000");
+        headers.put("x-amz-content-sha256", "UNSIGNED-PAYLOAD");
+        headers.put("x-amz-date", SUITE_DATE);
+        String expectedSignature = S3UploadTarget.signature(SUITE_SECRET, "eu-central-1", "s3", SUITE_DATE,
+                S3UploadTarget.canonicalRequest("PUT", path, canonicalQuery, headers, "UNSIGNED-PAYLOAD"));
+
+        assertEquals("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20150830/eu-central-1/s3/aws4_request, "
+                        + "SignedHeaders=host;x-amz-content-sha256;x-amz-date, Signature=" + expectedSignature,
+                target.authorization("PUT", path, canonicalQuery, SUITE_DATE));
+    }
+
+    private static SortedMap<String, String> s3Headers(String payloadHash) {
+        SortedMap<String, String> headers = new TreeMap<>();
+        headers.put("host", S3_HOST);
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", S3_DATE);
+        return headers;
+    }
+}
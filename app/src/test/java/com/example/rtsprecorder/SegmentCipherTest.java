@@ -0,0 +1,171 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class SegmentCipherTest {
+
+    private static final int CHUNK = SegmentCipher.CHUNK_SIZE;
+    private static final int TAG_BYTES = 16;
+
+    private SecretKey masterKey;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        masterKey = generator.generateKey();
+    }
+
+    @Test
+    public void roundTripsAtChunkBoundaries() throws IOException {
+        for (int size : new int[]{0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK}) {
+            byte[] plain = randomBytes(size);
+            assertArrayEquals("size " + size, plain, decrypt(encrypt(plain)));
+        }
+    }
+
+    @Test
+    public void roundTripsSingleByteWrites() throws IOException {
+        byte[] plain = randomBytes(CHUNK + 3);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentCipher.EncryptingOutputStream(sink, masterKey)) {
+            for (byte b : plain) {
+                out.write(b);
+            }
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new SegmentCipher.DecryptingInputStream(new ByteArrayInputStream(sink.toByteArray()), masterKey)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                result.write(b);
+            }
+        }
+        assertArrayEquals(plain, result.toByteArray());
+    }
+
+    @Test
+    public void rejectsMissingFinalChunk() throws IOException {
+        for (int size : new int[]{CHUNK + 1, 2 * CHUNK}) {
+            byte[] file = encrypt(randomBytes(size));
+            int finalChunk = chunkOffset(file, 1);
+            assertThrows("size " + size, IOException.class, () -> decrypt(Arrays.copyOf(file, finalChunk)));
+        }
+    }
+
+    @Test
+    public void rejectsFileCutInsideAChunk() throws IOException {
+        byte[] file = encrypt(randomBytes(CHUNK + 1));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(file, file.length - 1)));
+    }
+
+    @Test
+    public void rejectsSwappedChunks() throws IOException {
+        byte[] file = encrypt(randomBytes(2 * CHUNK + 1));
+        int first = chunkOffset(file, 0);
+        int second = chunkOffset(file, 1);
+        int length = second - first;
+        byte[] swapped = file.clone();
+        System.arraycopy(file, second, swapped, first, length);
+        System.arraycopy(file, first, swapped, second, length);
+        assertThrows(IOException.class, () -> decrypt(swapped));
+    }
+
+    @Test
+    public void rejectsTamperedHeader() throws IOException {
+        byte[] file = encrypt(randomBytes(100));
+        int headerLength = chunkOffset(file, 0);
+        // Every header byte, including the chunk size that only sizes buffers, is authenticated
+        for (int i = 0; i < headerLength; i++) {
+            byte[] tampered = file.clone();
+            tampered[i] ^= 0x01;
+            assertThrows("header byte " + i, IOException.class, () -> decrypt(tampered));
+        }
+    }
+
+    @Test
+    public void rejectsTamperedChunk() throws IOException {
+        byte[] file = encrypt(randomBytes(CHUNK + 1));
+        int[] positions = {chunkOffset(file, 0) + 4, chunkOffset(file, 1) - 1, file.length - 1};
+        for (int position : positions) {
+            byte[] tampered = file.clone();
+            tampered[position] ^= 0x01;
+            assertThrows("byte " + position, IOException.class, () -> decrypt(tampered));
+        }
+    }
+
+    @Test
+    public void rejectsTrailingBytesAfterFinalChunk() throws IOException {
+        byte[] file = encrypt(randomBytes(CHUNK + 1));
+        byte[] extended = Arrays.copyOf(file, file.length + 1);
+        assertThrows(IOException.class, () -> decrypt(extended));
+    }
+
+    @Test
+    public void rejectsOtherMasterKey() throws Exception {
+        byte[] file = encrypt(randomBytes(10));
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        masterKey = generator.generateKey();
+        assertThrows(IOException.class, () -> decrypt(file));
+    }
+
+    private byte[] encrypt(byte[] plain) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentCipher.EncryptingOutputStream(sink, masterKey)) {
+            out.write(plain);
+        }
+        return sink.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] file) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new SegmentCipher.DecryptingInputStream(new ByteArrayInputStream(file), masterKey)) {
+            byte[] buffer = new byte[10000];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                result.write(buffer, 0, n);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    // Offset of the n-th chunk's length field, following the layout in SegmentCipher's doc
+    private static int chunkOffset(byte[] file, int n) {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        buffer.position(4 + 1 + 4);
+        int ivLength = buffer.get() & 0xFF;
+        buffer.position(buffer.position() + ivLength);
+        int wrappedLength = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + wrappedLength + 8);
+        for (int i = 0; i < n; i++) {
+            int length = buffer.getInt();
+            if (length < TAG_BYTES) {
+                throw new IllegalArgumentException("not a chunk");
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.TimeZone;
+
+/** Slots in Europe/Berlin, across midnight and both daylight saving switches of 2026. */
+public class SegmentClockTest {
+
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    private TimeZone previous;
+
+    @Before
+    public void setUp() {
+        previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(previous);
+    }
+
+    private static long utc(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    @Test
+    public void slotsAlignToLocalMultiplesOfTheDuration() {
+        // 14:04:30 CEST
+        long start = SegmentClock.slotStart(utc("2026-07-01T12:04:30Z"), 3 * MINUTE_MS);
+
+        assertEquals(utc("2026-07-01T12:03:00Z"), start);
+        assertEquals(utc("2026-07-01T12:06:00Z"), SegmentClock.slotEnd(start, 3 * MINUTE_MS));
+        assertEquals(start, SegmentClock.slotStart(start, 3 * MINUTE_MS));
+    }
+
+    @Test
+    public void lastSlotOfTheDayIsShortAndEndsAtMidnight() {
+        long duration = 7 * MINUTE_MS;
+        // 23:58 CEST; 7-minute slots from midnight put the last one at 23:55
+        long start = SegmentClock.slotStart(utc("2026-07-01T21:58:00Z"), duration);
+        long end = SegmentClock.slotEnd(start, duration);
+
+        assertEquals(utc("2026-07-01T21:55:00Z"), start);
+        assertEquals(utc("2026-07-01T22:00:00Z"), end);
+        assertEquals(end, SegmentClock.slotStart(end, duration));
+        assertEquals(utc("2026-07-01T22:07:00Z"), SegmentClock.slotEnd(end, duration));
+    }
+
+    @Test
+    public void springForwardEndsTheSlotAtTheNewLocalTime() {
+        long duration = 3 * MINUTE_MS;
+        // 01:58 CET on 29 March; the clocks jump from 02:00 CET to 03:00 CEST
+        long start = SegmentClock.slotStart(utc("2026-03-29T00:58:00Z"), duration);
+        long end = SegmentClock.slotEnd(start, duration);
+
+        assertEquals(utc("2026-03-29T00:57:00Z"), start);
+        assertEquals(utc("2026-03-29T01:00:00Z"), end);
+        // The next slot is 03:00 CEST, which is the same instant
+        assertEquals(end, SegmentClock.slotStart(end, duration));
+    }
+
+    @Test
+    public void fallBackHourIsCoveredTwice() {
+        long duration = 60 * MINUTE_MS;
+        // 02:30 CEST and, one hour later, 02:30 CET on 25 October
+        long first = SegmentClock.slotStart(utc("2026-10-25T00:30:00Z"), duration);
+        long second = SegmentClock.slotStart(utc("2026-10-25T01:30:00Z"), duration);
+
+        assertEquals(utc("2026-10-25T00:00:00Z"), first);
+        assertEquals(utc("2026-10-25T01:00:00Z"), SegmentClock.slotEnd(first, duration));
+        assertEquals(utc("2026-10-25T01:00:00Z"), second);
+        assertEquals(utc("2026-10-25T02:00:00Z"), SegmentClock.slotEnd(second, duration));
+    }
+
+    @Test
+    public void midnightAfterFallBackIsLocalMidnight() {
+        long duration = 7 * MINUTE_MS;
+        // 23:57 CET on 25 October, the 25-hour day
+        long start = SegmentClock.slotStart(utc("2026-10-25T22:57:00Z"), duration);
+
+        assertEquals(utc("2026-10-25T22:55:00Z"), start);
+        assertEquals(utc("2026-10-25T23:00:00Z"), SegmentClock.slotEnd(start, duration));
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.TimeZone;
+
+public class SegmentTimingTest {
+
+    private static final String PREFIX = "recording_segment_";
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    private TimeZone previous;
+
+    @Before
+    public void setUp() {
+        previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(previous);
+    }
+
+    private static long utc(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    private static SegmentTiming slot(long slotStartMs, long durationMs, int part) {
+        return SegmentTiming.aligned(null, slotStartMs, slotStartMs + durationMs, slotStartMs, durationMs, part);
+    }
+
+    // Three frames 40 ms apart by PTS, with 30, 0 and 20 ms of extra delay on arrival
+    private static FrameTimingTracker.Span span(long firstFrameMs) {
+        FrameTimingTracker tracker = new FrameTimingTracker();
+        tracker.onAccessUnit(new byte[0], 0, 5_000_000, true, firstFrameMs + 30);
+        tracker.onAccessUnit(new byte[0], 0, 5_040_000, false, firstFrameMs + 40);
+        tracker.onAccessUnit(new byte[0], 0, 5_080_000, false, firstFrameMs + 100);
+        tracker.onStreamEnd();
+        return tracker.cut();
+    }
+
+    @Test
+    public void alignedSegmentsAreNamedAfterTheirLocalSlot() {
+        long start = utc("2026-07-01T12:03:00Z");
+
+        assertEquals(PREFIX + "20260701_140300", slot(start, 3 * MINUTE_MS, 1).baseName(PREFIX));
+        assertEquals(PREFIX + "20260701_140300_part2", slot(start, 3 * MINUTE_MS, 2).baseName(PREFIX));
+    }
+
+    @Test
+    public void slotBeforeMidnightKeepsItsDay() {
+        long start = utc("2026-07-01T21:55:00Z");
+
+        assertEquals(PREFIX + "20260701_235500", slot(start, 7 * MINUTE_MS, 1).baseName(PREFIX));
+        assertEquals(PREFIX + "20260702_000000", slot(start + 5 * MINUTE_MS, 7 * MINUTE_MS, 1).baseName(PREFIX));
+    }
+
+    @Test
+    public void springForwardSkipsTheMissingHour() {
+        assertEquals(PREFIX + "20260329_015700", slot(utc("2026-03-29T00:57:00Z"), 3 * MINUTE_MS, 1).baseName(PREFIX));
+        assertEquals(PREFIX + "20260329_030000", slot(utc("2026-03-29T01:00:00Z"), 3 * MINUTE_MS, 1).baseName(PREFIX));
+    }
+
+    @Test
+    public void repeatedHourAfterFallBackGetsItsOffset() {
+        long hour = 60 * MINUTE_MS;
+        String first = slot(utc("2026-10-25T00:00:00Z"), hour, 1).baseName(PREFIX);
+        String second = slot(utc("2026-10-25T01:00:00Z"), hour, 1).baseName(PREFIX);
+
+        assertEquals(PREFIX + "20261025_020000", first);
+        assertEquals(PREFIX + "20261025_020000_+0100", second);
+        assertEquals(PREFIX + "20261025_025700_+0100",
+                slot(utc("2026-10-25T01:57:00Z"), 3 * MINUTE_MS, 1).baseName(PREFIX));
+        assertEquals(PREFIX + "20261025_030000", slot(utc("2026-10-25T02:00:00Z"), 3 * MINUTE_MS, 1).baseName(PREFIX));
+        assertEquals(PREFIX + "20261025_020000_+0100_part2", slot(utc("2026-10-25T01:00:00Z"), hour, 2).baseName(PREFIX));
+    }
+
+    @Test
+    public void unalignedSegmentsAreNamedAfterTheirFirstFrame() {
+        SegmentTiming timing = SegmentTiming.unaligned(utc("2026-07-01T12:04:31.250Z"), utc("2026-07-01T12:05:00Z"));
+
+        assertEquals("event_20260701_140431", timing.baseName("event_"));
+    }
+
+    @Test
+    public void partOfRecognisesOnlyTheSlotsOwnFiles() {
+        long start = utc("2026-07-01T12:03:00Z");
+
+        assertEquals(1, SegmentTiming.partOf(PREFIX + "20260701_140300.mp4", PREFIX, start));
+        assertEquals(3, SegmentTiming.partOf(PREFIX + "20260701_140300_part3.mp4.enc", PREFIX, start));
+        assertEquals(0, SegmentTiming.partOf(PREFIX + "20260701_140300 (1).mp4", PREFIX, start));
+        assertEquals(0, SegmentTiming.partOf(PREFIX + "20260701_140300_thumbs.jpg", PREFIX, start));
+        assertEquals(0, SegmentTiming.partOf(PREFIX + "20260701_140600.mp4", PREFIX, start));
+        assertEquals(0, SegmentTiming.partOf(null, PREFIX, start));
+
+        // Both passes of the repeated hour keep to their own files
+        long firstPass = utc("2026-10-25T00:00:00Z");
+        long secondPass = utc("2026-10-25T01:00:00Z");
+        assertEquals(0, SegmentTiming.partOf(PREFIX + "20261025_020000_+0100.mp4", PREFIX, firstPass));
+        assertEquals(0, SegmentTiming.partOf(PREFIX + "20261025_020000.mp4", PREFIX, secondPass));
+        assertEquals(2, SegmentTiming.partOf(PREFIX + "20261025_020000_+0100_part2.mp4", PREFIX, secondPass));
+    }
+
+    @Test
+    public void frameTimesReplacePlayerTimesButNotTheName() {
+        long start = utc("2026-07-01T12:03:00Z");
+        long firstFrame = start + 1500;
+
+        SegmentTiming timing = SegmentTiming.aligned(span(firstFrame), start + 1000, start + 190000,
+                start, 3 * MINUTE_MS, 1);
+
+        assertEquals(firstFrame, timing.firstFrameMs);
+        assertEquals(firstFrame + 80, timing.lastFrameMs);
+        assertEquals(3, timing.frames);
+        assertEquals(FrameTimingTracker.SOURCE_PTS, timing.source);
+        assertEquals(PREFIX + "20260701_140300", timing.baseName(PREFIX));
+    }
+
+    @Test
+    public void emptySpanKeepsPlayerTimes() {
+        long start = utc("2026-07-01T12:03:00Z");
+        SegmentTiming timing = SegmentTiming.aligned(null, start + 1000, start + 190000, start, 3 * MINUTE_MS, 1);
+        FrameTimingTracker tracker = new FrameTimingTracker();
+
+        assertSame(timing, timing.withFrameTimes(tracker.cut()));
+        assertEquals(start + 1000, timing.firstFrameMs);
+        assertEquals(-1, timing.frames);
+        assertEquals(SegmentTiming.SOURCE_PLAYER, timing.source);
+    }
+
+    @Test
+    public void sidecarHasSlotAndFrameTimes() throws Exception {
+        long start = utc("2026-07-01T12:03:00Z");
+        SegmentTiming timing = SegmentTiming.aligned(span(start + 1500), start + 1000, start + 190000,
+                start, 3 * MINUTE_MS, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        timing.writeSidecar(out, PREFIX + "20260701_140300_part2.mp4", "high");
+
+        JSONObject sidecar = new JSONObject(out.toString("UTF-8"));
+        assertEquals(PREFIX + "20260701_140300_part2.mp4", sidecar.getString("segment"));
+        assertEquals(start, sidecar.getLong("slotStartMs"));
+        assertEquals(3 * MINUTE_MS, sidecar.getLong("slotDurationMs"));
+        assertEquals(2, sidecar.getInt("part"));
+        assertEquals(start + 1500, sidecar.getLong("firstFrameMs"));
+        assertEquals(80, sidecar.getLong("durationMs"));
+        assertEquals(3, sidecar.getInt("frames"));
+        assertEquals("pts", sidecar.getString("timingSource"));
+        assertEquals("Europe/Berlin", sidecar.getString("timeZone"));
+        assertEquals("high", sidecar.getString("encodingProfile"));
+    }
+
+    @Test
+    public void unalignedSidecarHasNoSlot() throws Exception {
+        SegmentTiming timing = SegmentTiming.unaligned(utc("2026-07-01T12:04:31Z"), utc("2026-07-01T12:05:00Z"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        timing.writeSidecar(out, "event_20260701_140431.mp4", "auto");
+
+        JSONObject sidecar = new JSONObject(out.toString("UTF-8"));
+        assertFalse(sidecar.has("slotStartMs"));
+        assertFalse(sidecar.has("part"));
+        assertEquals(29000, sidecar.getLong("durationMs"));
+        assertFalse(sidecar.has("frames"));
+        assertEquals("arrival", sidecar.getString("timingSource"));
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TsIngestTapTest {
+
+    private static final int PACKET = TsTestStreams.PACKET;
+    private static final int VIDEO_PID = TsTestStreams.VIDEO_PID;
+
+    private final List<String> logs = new ArrayList<>();
+    private final List<Boolean> keyframes = new ArrayList<>();
+    private TsIngestTap tap;
+
+    @Before
+    public void setUp() {
+        tap = new TsIngestTap(new File("unused.ts"), "test", logs::add, () -> { });
+        tap.addListener(new TsIngestTap.Listener() {
+            @Override
+            public void onTsPacket(byte[] packet, int offset, boolean keyframe, long receivedAtMs) {
+                keyframes.add(keyframe);
+            }
+
+            @Override
+            public void onStreamEnd() {
+            }
+        });
+    }
+
+    private void feed(byte[] packets) {
+        assertEquals(packets.length, tap.processPackets(packets, packets.length, 1000));
+    }
+
+    @Test
+    public void patAndPmtSelectTheVideoStream() throws Exception {
+        assertFalse(tap.hasPsi());
+        byte[] psi = TsTestStreams.psi();
+        feed(psi);
+
+        assertTrue(tap.hasPsi());
+        assertEquals(VIDEO_PID, tap.getVideoPid());
+        assertEquals(TsIngestTap.STREAM_TYPE_H264, tap.getVideoStreamType());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        tap.writePsi(written);
+        assertArrayEquals(psi, written.toByteArray());
+    }
+
+    @Test
+    public void pmtWithoutVideoGivesNoPsi() {
+        feed(TsTestStreams.concat(TsTestStreams.pat(TsTestStreams.PMT_PID),
+                TsTestStreams.pmt(TsTestStreams.PMT_PID, 0x0F, TsTestStreams.AUDIO_PID)));
+
+        assertFalse(tap.hasPsi());
+        assertEquals(-1, tap.getVideoPid());
+    }
+
+    @Test
+    public void keyframesAreFoundByNalTypeOrRandomAccessFlag() {
+        feed(TsTestStreams.psi());
+        keyframes.clear();
+
+        feed(TsTestStreams.frame(VIDEO_PID, 0, TsTestStreams.H264_IDR, false));
+        feed(TsTestStreams.frame(VIDEO_PID, 3600, TsTestStreams.H264_SLICE, false));
+        feed(TsTestStreams.frame(VIDEO_PID, 7200, TsTestStreams.H264_SLICE, true));
+        // An IDR NAL on another PID is not video
+        feed(TsTestStreams.frame(TsTestStreams.AUDIO_PID, 7200, TsTestStreams.H264_IDR, false));
+
+        assertEquals(Arrays.asList(true, false, true, false), keyframes);
+    }
+
+    @Test
+    public void hevcKeyframesUseHevcNalTypes() {
+        feed(TsTestStreams.concat(TsTestStreams.pat(TsTestStreams.PMT_PID),
+                TsTestStreams.pmt(TsTestStreams.PMT_PID, TsIngestTap.STREAM_TYPE_HEVC, VIDEO_PID)));
+        keyframes.clear();
+
+        byte[] idrWRadl = {0, 0, 1, 19 << 1, 0x01, 0x00};
+        byte[] trail = {0, 0, 1, 1 << 1, 0x01, 0x00};
+        feed(TsTestStreams.frame(VIDEO_PID, 0, idrWRadl, false));
+        feed(TsTestStreams.frame(VIDEO_PID, 3600, trail, false));
+
+        assertEquals(TsIngestTap.STREAM_TYPE_HEVC, tap.getVideoStreamType());
+        assertEquals(Arrays.asList(true, false), keyframes);
+    }
+
+    @Test
+    public void resyncsAfterGarbageAndKeepsPartialPackets() {
+        byte[] psi = TsTestStreams.psi();
+        byte[] buffer = new byte[3 + psi.length + 100];
+        buffer[0] = 0x12;
+        buffer[1] = 0x34;
+        buffer[2] = 0x56;
+        System.arraycopy(psi, 0, buffer, 3, psi.length);
+
+        int consumed = tap.processPackets(buffer, buffer.length, 1000);
+
+        assertEquals(3 + psi.length, consumed);
+        assertEquals(2, keyframes.size());
+        assertTrue(tap.hasPsi());
+    }
+
+    @Test
+    public void startsWithKeyframeRejectsTruncatedPesHeader() {
+        byte[] packet = TsTestStreams.frame(VIDEO_PID, 0, TsTestStreams.H264_IDR, false);
+        int payload = PACKET - (14 + TsTestStreams.H264_IDR.length);
+        assertTrue(TsIngestTap.startsWithKeyframe(packet, payload, PACKET, TsIngestTap.STREAM_TYPE_H264));
+        assertFalse(TsIngestTap.startsWithKeyframe(packet, payload, payload + 8, TsIngestTap.STREAM_TYPE_H264));
+        // Header length pointing past the end of the packet
+        packet[payload + 8] = (byte) 0xFF;
+        assertFalse(TsIngestTap.startsWithKeyframe(packet, payload, PACKET, TsIngestTap.STREAM_TYPE_H264));
+    }
+
+    @Test
+    public void throwingListenerIsDetachedAndOthersKeepReceiving() {
+        int[] calls = new int[1];
+        tap.addListener(new TsIngestTap.Listener() {
+            @Override
+            public void onTsPacket(byte[] packet, int offset, boolean keyframe, long receivedAtMs) {
+                calls[0]++;
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public void onStreamEnd() {
+            }
+        });
+
+        feed(TsTestStreams.psi());
+
+        assertEquals(1, calls[0]);
+        assertEquals(2, keyframes.size());
+        assertEquals(1, logs.size());
+        assertTrue(logs.get(0).startsWith("ERROR: Ingest tap test dropped"));
+    }
+}
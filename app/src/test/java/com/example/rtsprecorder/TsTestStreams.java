@@ -0,0 +1,124 @@
+package com.example.rtsprecorder;
+
+import java.io.ByteArrayOutputStream;
+
+/** Builds minimal MPEG-TS packets (PAT, PMT, video PES) for tests; CRCs are left zero. */
+final class TsTestStreams {
+
+    static final int PACKET = TsIngestTap.TS_PACKET_SIZE;
+    static final int PMT_PID = 0x1000;
+    static final int VIDEO_PID = 0x100;
+    static final int AUDIO_PID = 0x101;
+
+    static final byte[] H264_IDR = {0, 0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84, 0x00};
+    static final byte[] H264_SLICE = {0, 0, 0, 1, 0x41, (byte) 0x9A, 0x22, 0x00};
+
+    private TsTestStreams() {
+    }
+
+    static byte[] pat(int pmtPid) {
+        return packet(0, true, false, new byte[]{
+                0x00, // pointer_field
+                0x00, (byte) 0xB0, 13, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) (0xE0 | (pmtPid >> 8)), (byte) pmtPid,
+                0, 0, 0, 0});
+    }
+
+    /** PMT listing the given elementary streams as {type, pid} pairs. */
+    static byte[] pmt(int pmtPid, int... streams) {
+        int count = streams.length / 2;
+        byte[] section = new byte[1 + 12 + count * 5 + 4];
+        section[1] = 0x02;
+        int sectionLength = 9 + count * 5 + 4;
+        section[2] = (byte) (0xB0 | (sectionLength >> 8));
+        section[3] = (byte) sectionLength;
+        section[4] = 0x00;
+        section[5] = 0x01;
+        section[6] = (byte) 0xC1;
+        section[9] = (byte) (0xE0 | (streams[1] >> 8));
+        section[10] = (byte) streams[1];
+        section[11] = (byte) 0xF0;
+        for (int i = 0; i < count; i++) {
+            int at = 13 + i * 5;
+            section[at] = (byte) streams[i * 2];
+            section[at + 1] = (byte) (0xE0 | (streams[i * 2 + 1] >> 8));
+            section[at + 2] = (byte) streams[i * 2 + 1];
+            section[at + 3] = (byte) 0xF0;
+        }
+        return packet(pmtPid, true, false, section);
+    }
+
+    static byte[] psi() {
+        return concat(pat(PMT_PID), pmt(PMT_PID, TsIngestTap.STREAM_TYPE_H264, VIDEO_PID, 0x0F, AUDIO_PID));
+    }
+
+    /** PES header with a PTS in 90 kHz units, followed by {@code es}. */
+    static byte[] pes(long pts90k, byte[] es) {
+        byte[] pes = new byte[14 + es.length];
+        pes[2] = 0x01;
+        pes[3] = (byte) 0xE0;
+        pes[6] = (byte) 0x80;
+        pes[7] = (byte) 0x80;
+        pes[8] = 5;
+        pes[9] = (byte) (0x21 | ((pts90k >> 29) & 0x0E));
+        pes[10] = (byte) (pts90k >> 22);
+        pes[11] = (byte) (0x01 | ((pts90k >> 14) & 0xFE));
+        pes[12] = (byte) (pts90k >> 7);
+        pes[13] = (byte) (0x01 | ((pts90k << 1) & 0xFE));
+        System.arraycopy(es, 0, pes, 14, es.length);
+        return pes;
+    }
+
+    /** A whole video frame in as many packets as it needs, the first one starting the PES. */
+    static byte[] frame(int pid, long pts90k, byte[] es, boolean randomAccess) {
+        byte[] pes = pes(pts90k, es);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int offset = 0;
+        boolean first = true;
+        while (offset < pes.length) {
+            int room = first && randomAccess ? PACKET - 6 : PACKET - 4;
+            int length = Math.min(room, pes.length - offset);
+            byte[] payload = new byte[length];
+            System.arraycopy(pes, offset, payload, 0, length);
+            byte[] packet = packet(pid, first, first && randomAccess, payload);
+            out.write(packet, 0, packet.length);
+            offset += length;
+            first = false;
+        }
+        return out.toByteArray();
+    }
+
+    /** One packet carrying {@code payload}, padded with adaptation field stuffing. */
+    static byte[] packet(int pid, boolean payloadStart, boolean randomAccess, byte[] payload) {
+        byte[] packet = new byte[PACKET];
+        packet[0] = 0x47;
+        packet[1] = (byte) ((payloadStart ? 0x40 : 0) | (pid >> 8));
+        packet[2] = (byte) pid;
+        int adaptation = PACKET - 4 - payload.length;
+        if (adaptation == 0 && !randomAccess) {
+            packet[3] = 0x10;
+        } else {
+            if (adaptation < 2 && randomAccess) {
+                throw new IllegalArgumentException("no room for the random access flag");
+            }
+            packet[3] = 0x30;
+            packet[4] = (byte) (adaptation - 1);
+            if (adaptation > 1) {
+                packet[5] = (byte) (randomAccess ? 0x40 : 0x00);
+                for (int i = 6; i < 4 + adaptation; i++) {
+                    packet[i] = (byte) 0xFF;
+                }
+            }
+        }
+        System.arraycopy(payload, 0, packet, 4 + adaptation, payload.length);
+        return packet;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
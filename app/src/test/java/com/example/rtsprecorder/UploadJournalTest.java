@@ -0,0 +1,113 @@
+package com.example.rtsprecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class UploadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void completedPartsSurviveARestart() throws Exception {
+        File directory = new File(folder.getRoot(), "uploads");
+        UploadJournal journal = new UploadJournal(directory);
+        journal.add("content://segments/1", "cam_20240101_120000.mp4");
+
+        UploadJournal.Job job = journal.next();
+        job.targetId = "s3:cams";
+        job.uploadId = "upload-1";
+        job.size = 25L * 1024 * 1024;
+        job.partSize = 8 * 1024 * 1024;
+        job.parts.put(1, "\"etag-1\"");
+        job.parts.put(3, "\"etag-3\"");
+        journal.save(job);
+
+        // A new instance stands in for the service after a crash or restart
+        UploadJournal.Job resumed = new UploadJournal(directory).next();
+        assertNotNull(resumed);
+        assertEquals("content://segments/1", resumed.sourceUri);
+        assertEquals("cam_20240101_120000.mp4", resumed.objectName);
+        assertEquals(job.createdMs, resumed.createdMs);
+        assertEquals("s3:cams", resumed.targetId);
+        assertEquals("upload-1", resumed.uploadId);
+        assertEquals(job.size, resumed.size);
+        assertEquals(job.partSize, resumed.partSize);
+        assertEquals(job.parts, resumed.parts);
+        assertEquals(Arrays.asList(2, 4), UploadJournal.missingParts(resumed, 4));
+    }
+
+    @Test
+    public void newJobHasNoServerState() throws Exception {
+        UploadJournal journal = new UploadJournal(folder.getRoot());
+        journal.add("content://segments/1", "a.mp4");
+
+        UploadJournal.Job job = new UploadJournal(folder.getRoot()).next();
+        assertNull(job.targetId);
+        assertNull(job.uploadId);
+        assertEquals(Arrays.asList(1, 2), UploadJournal.missingParts(job, 2));
+    }
+
+    @Test
+    public void resetJobIsPersistedWithoutParts() throws Exception {
+        UploadJournal journal = new UploadJournal(folder.getRoot());
+        journal.add("content://segments/1", "a.mp4");
+        UploadJournal.Job job = journal.next();
+        job.uploadId = "expired";
+        job.parts.put(1, "\"etag-1\"");
+        journal.save(job);
+
+        job.reset();
+        journal.save(job);
+
+        UploadJournal.Job reloaded = new UploadJournal(folder.getRoot()).next();
+        assertNull(reloaded.uploadId);
+        assertEquals(Collections.emptyMap(), reloaded.parts);
+    }
+
+    @Test
+    public void nextReturnsOldestJob() throws Exception {
+        UploadJournal journal = new UploadJournal(folder.getRoot());
+        journal.save(new UploadJournal.Job("content://segments/2", "b.mp4", 2000));
+        journal.save(new UploadJournal.Job("content://segments/1", "a.mp4", 1000));
+        journal.save(new UploadJournal.Job("content://segments/3", "c.mp4", 3000));
+
+        assertEquals(3, journal.size());
+        UploadJournal.Job first = journal.next();
+        assertEquals("a.mp4", first.objectName);
+
+        journal.remove(first);
+        assertEquals(2, journal.size());
+        assertEquals("b.mp4", journal.next().objectName);
+    }
+
+    @Test
+    public void unreadableEntryIsDropped() throws Exception {
+        UploadJournal journal = new UploadJournal(folder.getRoot());
+        journal.save(new UploadJournal.Job("content://segments/2", "b.mp4", 2000));
+        try (FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), "a.mp4.json"))) {
+            out.write("{\"source\":\"content://segm".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("b.mp4", journal.next().objectName);
+        assertEquals(1, journal.size());
+    }
+
+    @Test
+    public void emptyJournal() {
+        UploadJournal journal = new UploadJournal(new File(folder.getRoot(), "missing"));
+        assertNull(journal.next());
+        assertEquals(0, journal.size());
+    }
+}